@@ -1,15 +1,21 @@
+import algorithms.FileUtils;
+import algorithms.StreamingDiff;
 import gnu.getopt.Getopt;
 import lanterna.LanternaInterface;
 import swing.SwingInterface;
 
 import java.awt.*;
+import java.io.File;
+import java.io.IOException;
 
 public class Main {
     public static void main(String[] args) {
-        Getopt options = new Getopt("JayWinDiff", args, "wW");
+        Getopt options = new Getopt("JayWinDiff", args, "wWft:s:");
         boolean withGui = false;
         boolean withoutGui = false;
-        switch(options.getopt()) {
+        String streamTo = null;
+        int option;
+        while ((option = options.getopt()) != -1) switch(option) {
             case 'w':
                 //noinspection ConstantValue
                 if ( withoutGui ) {
@@ -27,10 +33,41 @@ public class Main {
                 }
                 withoutGui = true;
                 break;
+            case 't': // time budget of a diff in seconds for this run, 0 = unlimited
+                try {
+                    FileUtils.overrideDiffTimeLimitSeconds(Integer.parseInt(options.getOptarg()));
+                } catch (NumberFormatException e) {
+                    System.err.println("JayWinDiff: Option -t expects the time budget in seconds.");
+                }
+                break;
+            case 'f': // cap the search cost of every region for this run (like GNU diff --speed-large-files)
+                FileUtils.overrideSpeedLargeFiles();
+                break;
+            case 's': // write the diff of two files of any size to this file without a user interface
+                streamTo = options.getOptarg();
+                break;
             default:
                 break;
         }
 
+        if (streamTo != null) {
+            if (args.length - options.getOptind() != 2) {
+                System.err.println("JayWinDiff: Option -s expects two files to compare.");
+                System.exit(2);
+            }
+            File output = new File(streamTo);
+            StreamingDiff.Format format = streamTo.toLowerCase().endsWith(".html") ? StreamingDiff.Format.HTML : StreamingDiff.Format.UNIFIED;
+            try {
+                if (StreamingDiff.write(new File(args[options.getOptind()]), new File(args[options.getOptind() + 1]), output, format)) {
+                    System.err.println("JayWinDiff: Diff is not minimal (memory, time or cost budget exceeded).");
+                }
+            } catch (IOException e) {
+                System.err.println("JayWinDiff: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+
         if (!(withGui || withoutGui)) {
             withoutGui = GraphicsEnvironment.isHeadless();
             withGui = !withoutGui;
@@ -1,18 +1,37 @@
 package algorithms;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.Set;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 
+/**
+ * Classifies files by their magic numbers and, if none matches, by the share of binary / non UTF-8 bytes
+ * The magic numbers of all file types are compiled once into a byte trie per position in the file (start, offset from
+ * the start or from the end), so a lookup walks the header bytes once instead of comparing every type
+ * The file is opened once: one positional read fills a buffer with the header (all magic numbers with an offset from
+ * the start) and the text sample, only magic numbers behind it (offset from the end) and the rest of an extensive check
+ * need further reads on the same channel
+ */
 public class BinaryHeuristics {
 
+    private static final int SAMPLE_BYTES = 1048576; // bytes of the text check if not extensive, also the read block size
+    private static final List<SignatureTrie> TRIES = buildTries();
+    private static final int HEAD_BYTES = headBytes();
+
     public static FileType fileTypeOf(File file, boolean extensive) {
-        try {
-            FileType fileType = getFileTypeFromMagicNumber(file);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long sampled = extensive ? size : Math.min(size / 10, SAMPLE_BYTES);
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size, Math.max(HEAD_BYTES, Math.min(sampled, SAMPLE_BYTES))));
+            read(channel, buffer, 0);
+            FileType fileType = getFileTypeFromMagicNumber(channel, size, buffer);
             if (fileType != null) {
                 return fileType;
-            } else if (isBinary(file, extensive)) {
+            } else if (isBinary(channel, sampled, buffer)) {
                 return FileType.BINARY;
             } else {
                 return FileType.TEXT;
@@ -22,97 +41,179 @@ public class BinaryHeuristics {
         }
     }
 
-    private static FileType getFileTypeFromMagicNumber(File file) throws IOException {
-        FileInputStream fis1 = new FileInputStream(file);
-        int[] actual8FirstMN = nextNMagicNumbers(fis1, 8);
+    /**
+     * @return Bytes from the start of a file that hold every magic number with an offset from the left
+     */
+    private static int headBytes() {
+        int bytes = 0;
+        for (SignatureTrie trie : TRIES) if (trie.fromLeft) bytes = (int) Math.max(bytes, trie.offset + trie.depth);
+        return bytes;
+    }
+
+    /**
+     * One trie per position, in the order of the file types
+     */
+    private static List<SignatureTrie> buildTries() {
+        List<SignatureTrie> tries = new ArrayList<>();
         for (FileType fileType : FileType.values()) {
             if (fileType.magicNumbersWithOffset.isEmpty()) { // in most cases magic numbers do not have an offset
-                int[] currentMN = fileType.magicNumbers;
-                if (magicNumbersMatch(actual8FirstMN, currentMN)) return fileType;
-                // check alternative magic numbers if applicable
-                Set<int[]> currentAltMN = fileType.alternativeMagicNumbers;
-                if (!currentAltMN.isEmpty()) for (int[] amn : currentAltMN) {
-                    if (magicNumbersMatch(actual8FirstMN, amn)) return fileType;
-                }
-            } else { // if magic numbers have offset
+                if (fileType.magicNumbers != null) trieAt(tries, 0, true).add(fileType.magicNumbers, fileType);
+                for (int[] amn : fileType.alternativeMagicNumbers) trieAt(tries, 0, true).add(amn, fileType);
+            } else {
                 for (FileType.MagicNumberWithOffset mnWithOffset : fileType.magicNumbersWithOffset) {
-                    FileInputStream fis2 = new FileInputStream(file);
-                    if(mnWithOffset.offsetFromLeft()) fis2.skipNBytes(mnWithOffset.offset()); // skip to location of magic number
-                    else fis2.skipNBytes(file.length() - mnWithOffset.offset()); // skip to location of magic number (offset from right)
-                    int[] currentMN = mnWithOffset.magicNumber();
-                    int[] actualMN = nextNMagicNumbers(fis2, currentMN.length);
-                    fis2.close();
-                    if(magicNumbersMatch(actualMN, currentMN)) return fileType;
+                    trieAt(tries, mnWithOffset.offset(), mnWithOffset.offsetFromLeft()).add(mnWithOffset.magicNumber(), fileType);
                 }
             }
         }
-        return null; // no file type matches
+        return tries;
     }
 
-    private static int[] nextNMagicNumbers(FileInputStream fis, int n) throws IOException {
-        int[] firstMN = new int[n];
-        for (int i = 0; i < n; i++) firstMN[i] = fis.read();
-        fis.close();
-        return firstMN;
+    private static SignatureTrie trieAt(List<SignatureTrie> tries, int offset, boolean fromLeft) {
+        for (SignatureTrie trie : tries) if (trie.offset == offset && trie.fromLeft == fromLeft) return trie;
+        SignatureTrie trie = new SignatureTrie(offset, fromLeft);
+        tries.add(trie);
+        return trie;
     }
 
-    private static boolean magicNumbersMatch(int[] actualMN, int[] currentMN) {
-        for (int i = 0; i < currentMN.length; i++) {
-            if (currentMN[i] != actualMN[i]) return false;// mismatch
+    /**
+     * Fill the buffer from the given position on (positional reads, the channel position is not used)
+     *
+     * @return Bytes read, less than the capacity only at the end of the file; the buffer is flipped for reading
+     */
+    private static int read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) break;
+        }
+        buffer.flip();
+        return buffer.limit();
+    }
+
+    /**
+     * @param head Buffer with the first bytes of the file (all of them if the file is shorter than the buffer)
+     * @return The first file type (in the order of the enum) with a matching magic number, null if none matches
+     */
+    private static FileType getFileTypeFromMagicNumber(FileChannel channel, long size, ByteBuffer head) throws IOException {
+        FileType best = null;
+        for (SignatureTrie trie : TRIES) {
+            long position = trie.fromLeft ? trie.offset : size - trie.offset; // offset from right: e.g. "end - 512"
+            if (position < 0) continue; // file is shorter than the offset
+            FileType fileType;
+            if (position + trie.depth <= head.limit() || head.limit() == size) { // in the header (or behind the end of the file)
+                fileType = trie.match(head, (int) Math.min(position, size));
+            } else {
+                ByteBuffer window = ByteBuffer.allocate(trie.depth);
+                read(channel, window, position);
+                fileType = trie.match(window, 0);
+            }
+            if (fileType != null && (best == null || fileType.ordinal() < best.ordinal())) best = fileType;
+        }
+        return best; // no file type matches if null
+    }
+
+    /**
+     * Magic numbers that start at the same position, one child per byte value and one for the end of the file (-1)
+     */
+    private static final class SignatureTrie {
+        private static final int END = 256; // child for the end of the file
+
+        private final long offset;
+        private final boolean fromLeft;
+        private final Node root = new Node();
+        private int depth; // length of the longest magic number
+
+        private SignatureTrie(long offset, boolean fromLeft) {
+            this.offset = offset;
+            this.fromLeft = fromLeft;
+        }
+
+        private static final class Node {
+            private final Node[] next = new Node[END + 1];
+            private FileType fileType; // file type whose magic number ends here, the first one in the enum
+        }
+
+        private void add(int[] magicNumber, FileType fileType) {
+            Node node = root;
+            for (int b : magicNumber) {
+                int symbol = b < 0 ? END : b;
+                if (node.next[symbol] == null) node.next[symbol] = new Node();
+                node = node.next[symbol];
+            }
+            if (node.fileType == null || fileType.ordinal() < node.fileType.ordinal()) node.fileType = fileType;
+            depth = Math.max(depth, magicNumber.length);
+        }
+
+        /**
+         * Walk the bytes from start on, bytes behind the end of the buffer count as -1 (end of file)
+         *
+         * @return First file type (in the order of the enum) of all magic numbers on the path, null if none
+         */
+        private FileType match(ByteBuffer bytes, int start) {
+            FileType best = null;
+            Node node = root;
+            for (int i = start; ; i++) {
+                int symbol = i < bytes.limit() ? bytes.get(i) & 0xFF : END;
+                node = node.next[symbol];
+                if (node == null) return best;
+                if (node.fileType != null && (best == null || node.fileType.ordinal() < best.ordinal())) best = node.fileType;
+                if (symbol == END) return best; // nothing follows the end of the file
+            }
         }
-        return true; // all match
     }
 
     /**
      * Check if a file is binary
      *
-     * @param file      File to check
-     * @param extensive If true, check the entire file. If false, check the first 1MB
-     *                  (1048576 bytes)
+     * @param channel Open file
+     * @param length  Bytes to check from the start: the entire file if extensive, otherwise a tenth of it, at most 1MB
+     *                (1048576 bytes)
+     * @param buffer  Buffer with the first bytes of the file, reused for the following blocks
      * @return True if the file is binary, false otherwise
-     * @see java.io.File
      */
-    private static Boolean isBinary(File file, boolean extensive) throws IOException {
-        FileInputStream fis = new FileInputStream(file);
-        long length = extensive ? file.length() : Math.min(file.length() / 10, 1048576);
+    private static boolean isBinary(FileChannel channel, long length, ByteBuffer buffer) throws IOException {
         long binaryChars = 0;
         long nonUtf8Chars = 0;
         long nonIsoChars = 0;
         int followChars = 0;
-        for (long l = 0; l < length; l++) {
-            int c = fis.read();
-            if (c == -1) break; // end of input
+        long position = 0;
+        while (position < length) {
+            if (position > 0 && read(channel, buffer, position) == 0) break; // end of input
+            int count = (int) Math.min(buffer.limit(), length - position);
+            if (count == 0) break;
+            for (int i = 0; i < count; i++) {
+                int c = buffer.get(i) & 0xFF;
 
-            // binaryChars = non-printable, non-whitespace control characters
-            if (c < ' ' && !Character.isWhitespace(c)) binaryChars++;
+                // binaryChars = non-printable, non-whitespace control characters
+                if (c < ' ' && !Character.isWhitespace(c)) binaryChars++;
 
-            // non-ASCII characters (0x00 to 0x7F) => nonIso/nonUtf8?
-            if (!(c < 0x80)) {
+                // non-ASCII characters (0x00 to 0x7F) => nonIso/nonUtf8?
+                if (!(c < 0x80)) {
 
-                // nonIsoChars = non-ISO control characters (0x81 to 0x9F)
-                if (c > 0x80 && c <= 0x9F) nonIsoChars++;
+                    // nonIsoChars = non-ISO control characters (0x81 to 0x9F)
+                    if (c > 0x80 && c <= 0x9F) nonIsoChars++;
 
-                // nonUtf8Chars
-                if ((c & 0xC0) == 0x80) { // UTF-8 continuation bytes (0x80 to 0xBF)
-                    if (followChars > 0) followChars--;
-                    else nonUtf8Chars++;
-                }
-                if ((c & 0xE0) == 0xC0) { // start of UTF-8 2-byte-sequence (0xC0 to 0xDF)
-                    if (followChars > 0) nonUtf8Chars++;
-                    followChars = 1;
-                } else if ((c & 0xF0) == 0xE0) { // start of UTF-8 3-byte-sequence (0xE0 to 0xEF)
-                    if (followChars > 0) nonUtf8Chars++;
-                    followChars = 2;
-                } else if ((c & 0xF8) == 0xF0) {// start of UTF-8 4-byte-sequence (0xF0 to 0xF7)
-                    if (followChars > 0) nonUtf8Chars++;
-                    followChars = 3;
-                } else if ((c & 0xFC) == 0xF8) { // start of UTF-8 5-byte-sequence (invalid in modern UTF-8)
-                    if (followChars > 0) nonUtf8Chars++;
-                    followChars = 4;
+                    // nonUtf8Chars
+                    if ((c & 0xC0) == 0x80) { // UTF-8 continuation bytes (0x80 to 0xBF)
+                        if (followChars > 0) followChars--;
+                        else nonUtf8Chars++;
+                    }
+                    if ((c & 0xE0) == 0xC0) { // start of UTF-8 2-byte-sequence (0xC0 to 0xDF)
+                        if (followChars > 0) nonUtf8Chars++;
+                        followChars = 1;
+                    } else if ((c & 0xF0) == 0xE0) { // start of UTF-8 3-byte-sequence (0xE0 to 0xEF)
+                        if (followChars > 0) nonUtf8Chars++;
+                        followChars = 2;
+                    } else if ((c & 0xF8) == 0xF0) {// start of UTF-8 4-byte-sequence (0xF0 to 0xF7)
+                        if (followChars > 0) nonUtf8Chars++;
+                        followChars = 3;
+                    } else if ((c & 0xFC) == 0xF8) { // start of UTF-8 5-byte-sequence (invalid in modern UTF-8)
+                        if (followChars > 0) nonUtf8Chars++;
+                        followChars = 4;
+                    }
                 }
             }
+            position += count;
         }
-        fis.close();
         return binaryChars > length / 10 || nonUtf8Chars > length / 10 || nonIsoChars > length / 10;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,85 @@
+package algorithms;
+
+import java.util.Arrays;
+
+/**
+ * Match masks of a string for the bit-parallel string algorithms (often called Peq)
+ * For every character c, bit i of the mask is set if text.charAt(i) == c; the mask is split into 64 bit words
+ * All masks live in one flat long[]: ASCII characters have a fixed slot, other characters get a slot behind them
+ * The masks can be {@link #reset(String) reset} to another string, which reuses the arrays (scratch buffer per thread)
+ *
+ * @see InlineDiff
+ */
+final class CharBitMasks {
+
+    private static final int ASCII = 128;
+    /**
+     * Slot of characters that do not occur in the text, its mask is always 0
+     */
+    static final int NO_MATCH = -1;
+
+    /**
+     * Number of 64 bit words per mask
+     */
+    int words;
+    private String text = "";
+    private char[] otherChars = new char[0]; // sorted non-ASCII characters of the text, slot ASCII + index
+    private int otherCount;
+    private long[] masks = new long[ASCII]; // mask of slot s starts at s * words
+
+    CharBitMasks(String text) {
+        reset(text);
+    }
+
+    /**
+     * Build the masks of another string, only the words set by the last string are cleared
+     *
+     * @param text String the masks are built for
+     */
+    void reset(String text) {
+        for (int i = 0; i < this.text.length(); i++) masks[slot(this.text.charAt(i)) * words + (i >>> 6)] = 0; // old layout
+        this.text = text;
+        words = Math.max(1, (text.length() + 63) >>> 6);
+
+        otherCount = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < ASCII) continue;
+            if (otherCount == otherChars.length) otherChars = Arrays.copyOf(otherChars, Math.max(8, 2 * otherCount));
+            otherChars[otherCount++] = c;
+        }
+        if (otherCount > 0) { // sort and remove duplicates
+            Arrays.sort(otherChars, 0, otherCount);
+            int distinct = 1;
+            for (int i = 1; i < otherCount; i++) if (otherChars[i] != otherChars[distinct - 1]) otherChars[distinct++] = otherChars[i];
+            otherCount = distinct;
+        }
+
+        int size = (ASCII + otherCount) * words;
+        if (masks.length < size) masks = new long[size]; // otherwise all words are 0 again after the clearing above
+        for (int i = 0; i < text.length(); i++) {
+            masks[slot(text.charAt(i)) * words + (i >>> 6)] |= 1L << i; // shift uses i mod 64
+        }
+    }
+
+    /**
+     * Look up a character once, e.g. before all words of its mask are used
+     *
+     * @param c Character to look up
+     * @return Slot of the character or {@link #NO_MATCH}
+     */
+    int slot(char c) {
+        if (c < ASCII) return c;
+        int index = otherCount == 0 ? -1 : Arrays.binarySearch(otherChars, 0, otherCount, c);
+        return index < 0 ? NO_MATCH : ASCII + index;
+    }
+
+    /**
+     * @param slot Slot from {@link #slot(char)}
+     * @param word Index of the 64 bit word
+     * @return Bits of the positions [64·word, 64·word + 64) that hold the character of the slot
+     */
+    long get(int slot, int word) {
+        return slot == NO_MATCH ? 0 : masks[slot * words + word];
+    }
+}
@@ -0,0 +1,80 @@
+package algorithms;
+
+/**
+ * Selectable line diff engines
+ * The selected engine is stored in the preferences, see {@link FileUtils#setDiffAlgorithm(DiffAlgorithm)}
+ * Before a diff the selection is checked against the memory budget with {@link #select(DiffAlgorithm, int, int, long)}
+ * for the window left after {@link PrefixSuffixTrimmer}, an engine that might not fit is replaced by one that does
+ */
+public enum DiffAlgorithm {
+    AUTO("Automatisch (nach Größe und Speicher)", new Myers()), // engine only used if AUTO is not resolved by select
+    MYERS("Myers", new Myers()), //
+    HISTOGRAM("Histogram", new HistogramDiff()), //
+    PATIENCE("Patience", new PatienceDiff()), //
+    HUNT_SZYMANSKI("Hunt-Szymanski", new HuntSzymanski()), //
+    MYERS_LINEAR_SPACE("Myers (linearer Speicher)", new MyersLinearSpace()), //
+    HUNT_MCILROY("Hunt-McIlroy (exakte LCS-Matrix)", new HuntMcIlroy());
+
+    public final String displayName;
+    /**
+     * Stateless engine, can be shared by all threads
+     */
+    public final DiffEngine engine;
+
+    DiffAlgorithm(String displayName, DiffEngine engine) {
+        this.displayName = displayName;
+        this.engine = engine;
+    }
+
+    /**
+     * @return true if the engine always finds a shortest edit script, false for the heuristics (Patience, Histogram)
+     */
+    public boolean isExact() {
+        return this != PATIENCE && this != HISTOGRAM;
+    }
+
+    /**
+     * Worst case heap usage of a diff of n and m lines, including the tokens and the result tuples
+     * Only the line counts are known before the diff, so the estimate assumes that all lines differ; Myers is estimated
+     * without its trace, the trace is bounded by the memory limit of the {@link DiffBudget} at runtime
+     *
+     * @param n Number of left lines
+     * @param m Number of right lines
+     * @return Estimated bytes
+     */
+    public long estimatedBytes(long n, long m) {
+        long lines = n + m;
+        long common = 96 * lines; // tokens, hash table, tuples and the columns of the LineResult
+        return common + switch (this) {
+            case HUNT_MCILROY -> 4 * (n + 1) * (m + 1); // the whole LCS matrix
+            case MYERS, AUTO -> 32 * lines; // V array, the trace switches to linear space when it reaches the budget
+            case HUNT_SZYMANSKI -> 32 * n * m; // one candidate per pair of equal lines
+            case MYERS_LINEAR_SPACE -> 32 * lines;
+            case PATIENCE, HISTOGRAM -> 48 * lines;
+        };
+    }
+
+    /**
+     * Choose the engine that is actually used for a diff
+     * AUTO takes Myers, which decides by the edit distance it reaches whether it keeps its trace or continues in linear
+     * space; a selected exact engine that does not fit is replaced by Myers, a heuristic by the histogram diff or the
+     * linear-space Myers
+     *
+     * @param requested Selected engine
+     * @param n         Number of left lines (of the window left after trimming the common prefix and suffix)
+     * @param m         Number of right lines (of the same window)
+     * @param budget    Bytes the diff may use
+     * @return Engine that fits into the budget
+     */
+    public static DiffAlgorithm select(DiffAlgorithm requested, int n, int m, long budget) {
+        if (requested == AUTO) return MYERS;
+        if (requested.estimatedBytes(n, m) <= budget) return requested;
+        if (!requested.isExact()) return HISTOGRAM.estimatedBytes(n, m) <= budget ? HISTOGRAM : MYERS_LINEAR_SPACE;
+        return MYERS;
+    }
+
+    @Override
+    public String toString() {
+        return displayName;
+    }
+}
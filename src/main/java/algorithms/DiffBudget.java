@@ -0,0 +1,134 @@
+package algorithms;
+
+/**
+ * Bounds the work of one diff
+ * After the time limit every region of the edit graph is split right away at the furthest reaching point instead of
+ * the optimal middle snake. With the cost cap (GNU diff's --speed-large-files, TOO_EXPENSIVE) every region may only be
+ * searched up to a cost of about 2·√(N+M) edit steps (at least {@link #MIN_COST}) before it is split, no matter how
+ * much time is left. The result is still a valid diff, but not necessarily a minimal one, which is recorded per cause
+ * with {@link #isTimeExceeded()} and {@link #isCostExceeded()}
+ * The memory limit tells engines whose memory grows with the edit distance (the trace of {@link Myers}) when to switch
+ * to a linear-space search, which does not change the result
+ * A budget belongs to one diff call, the engines themselves stay stateless
+ *
+ * @see MyersLinearSpace
+ * @see DiffEngine#compare(java.util.List, java.util.List, DiffBudget)
+ */
+public final class DiffBudget {
+
+    private static final int MIN_COST = 256;
+
+    private final boolean timed;
+    private final long deadline; // System.nanoTime()
+    private final boolean costCapped;
+    private final long memoryBytes;
+    private volatile boolean stopped;
+    private volatile boolean timeExceeded;
+    private volatile boolean costExceeded;
+
+    private DiffBudget(boolean timed, long deadline, boolean costCapped, long memoryBytes) {
+        this.timed = timed;
+        this.deadline = deadline;
+        this.costCapped = costCapped;
+        this.memoryBytes = memoryBytes;
+    }
+
+    /**
+     * @return Budget without any limit, the engines compute exact diffs
+     */
+    public static DiffBudget unlimited() {
+        return new DiffBudget(false, Long.MAX_VALUE, false, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param millis Time after which every remaining region is split without searching
+     * @return Budget that starts now
+     */
+    public static DiffBudget ofMillis(long millis) {
+        return new DiffBudget(true, System.nanoTime() + Math.max(0, millis) * 1_000_000, false, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param bytes Heap an engine may use for data that grows with the edit distance
+     * @return Budget with the same limits and the given memory limit
+     */
+    public DiffBudget withMemoryLimit(long bytes) {
+        return new DiffBudget(timed, deadline, costCapped, bytes);
+    }
+
+    /**
+     * @return Budget with the same limits that also caps the search cost of every region (speed large files)
+     */
+    public DiffBudget withCostCap() {
+        return new DiffBudget(timed, deadline, true, memoryBytes);
+    }
+
+    /**
+     * @return Heap an engine may use for data that grows with the edit distance, Long.MAX_VALUE if unlimited
+     */
+    long memoryBytes() {
+        return memoryBytes;
+    }
+
+    /**
+     * @return true if a search may be cut off right now (cost cap or time limit passed)
+     */
+    public boolean isLimited() {
+        return costCapped || isExpired();
+    }
+
+    /**
+     * Largest edit distance a search in a region of n and m lines may explore
+     *
+     * @param n Lines of the left part of the region
+     * @param m Lines of the right part of the region
+     * @return Cost limit, Integer.MAX_VALUE without cost cap, 1 after the time limit
+     */
+    int costLimit(int n, int m) {
+        if (isExpired()) return 1;
+        if (!costCapped) return Integer.MAX_VALUE;
+        int cost = 1;
+        for (long diagonals = (long) n + m + 3; diagonals != 0; diagonals >>= 2) cost <<= 1; // ≈ 2·√(n+m), like GNU diff
+        return Math.max(MIN_COST, cost);
+    }
+
+    boolean isExpired() {
+        return stopped || timed && System.nanoTime() - deadline > 0;
+    }
+
+    /**
+     * End the time limit now, running searches split their remaining regions right away (their result is not needed anymore)
+     */
+    void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Called by an engine that cut off a search, the result is no longer guaranteed to be minimal
+     */
+    void markCutOff() {
+        if (isExpired()) timeExceeded = true;
+        else costExceeded = true;
+    }
+
+    /**
+     * @return true if a search was cut off because the time limit had passed
+     */
+    public boolean isTimeExceeded() {
+        return timeExceeded;
+    }
+
+    /**
+     * @return true if a search was cut off by the cost cap before the time limit
+     */
+    public boolean isCostExceeded() {
+        return costExceeded;
+    }
+
+    /**
+     * @return true if at least one search was cut off, the diff is valid but may contain more changes than necessary
+     */
+    public boolean isApproximate() {
+        return timeExceeded || costExceeded;
+    }
+}
@@ -0,0 +1,84 @@
+package algorithms;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A line diff engine
+ * Implementations keep no state between calls: everything a diff needs is created per call,
+ * the inputs are never modified and the results are immutable, so one engine can be used by many threads at once
+ * (e.g. several SwingWorkers or a thread pool comparing whole directories)
+ *
+ * @see DiffAlgorithm
+ */
+public interface DiffEngine {
+
+    /**
+     * Find the equal lines of two token sequences
+     * Must not modify the arrays, they may be shared with other calls
+     *
+     * @param left     Tokens of the left lines
+     * @param right    Tokens of the right lines
+     * @param distinct Number of different tokens, all tokens are in the range [0, distinct)
+     * @return Sequences of equal lines in ascending order
+     */
+    List<HuntMcIlroy.MatchingLineSequence> getMatchingLineSequences(int[] left, int[] right, int distinct);
+
+    /**
+     * Find the equal lines of two token sequences within a budget
+     * Engines that search the edit graph cut off expensive regions and mark the budget as approximate,
+     * the default ignores the budget (for engines whose cost does not explode)
+     *
+     * @param left     Tokens of the left lines
+     * @param right    Tokens of the right lines
+     * @param distinct Number of different tokens, all tokens are in the range [0, distinct)
+     * @param budget   Budget of this call
+     * @return Sequences of equal lines in ascending order
+     */
+    default List<HuntMcIlroy.MatchingLineSequence> getMatchingLineSequences(int[] left, int[] right, int distinct, DiffBudget budget) {
+        return getMatchingLineSequences(left, right, distinct);
+    }
+
+    /**
+     * Compare two files line by line
+     * Leading whitespaces are ignored
+     *
+     * @param leftFile  First file to compare
+     * @param rightFile Second file to compare
+     * @return Immutable list of StringTuples covering every line of both files
+     * @throws IOException if one of the files can not be read
+     */
+    default List<HuntMcIlroy.StringTuple> compare(File leftFile, File rightFile) throws IOException {
+        return compare(HuntMcIlroy.readLines(leftFile), HuntMcIlroy.readLines(rightFile));
+    }
+
+    /**
+     * Compare two lists of lines
+     * Leading whitespaces are ignored
+     *
+     * @param leftLines  Lines of the left file
+     * @param rightLines Lines of the right file
+     * @return Immutable list of StringTuples covering every line of both lists
+     */
+    default List<HuntMcIlroy.StringTuple> compare(List<String> leftLines, List<String> rightLines) {
+        return compare(leftLines, rightLines, DiffBudget.unlimited());
+    }
+
+    /**
+     * Compare two lists of lines within a budget
+     * Leading whitespaces are ignored
+     *
+     * @param leftLines  Lines of the left file
+     * @param rightLines Lines of the right file
+     * @param budget     Budget of this call, {@link DiffBudget#isApproximate()} tells afterwards if it was exceeded
+     * @return Immutable list of StringTuples covering every line of both lists
+     */
+    default List<HuntMcIlroy.StringTuple> compare(List<String> leftLines, List<String> rightLines, DiffBudget budget) {
+        if (!(leftLines instanceof MappedLines)) leftLines = List.copyOf(leftLines); // snapshot, the caller may change its lists afterwards
+        if (!(rightLines instanceof MappedLines)) rightLines = List.copyOf(rightLines); // (mapped lines can not change)
+        // only the part between common prefix and suffix is handed to the engine
+        List<HuntMcIlroy.MatchingLineSequence> matchingLineSequences = PrefixSuffixTrimmer.diff(leftLines, rightLines, this, budget);
+        return List.copyOf(HuntMcIlroy.toStringTuples(leftLines, rightLines, matchingLineSequences));
+    }
+}
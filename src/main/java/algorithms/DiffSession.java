@@ -0,0 +1,56 @@
+package algorithms;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Owns the mapped files of one diff view, e.g. the compared pair shown in the Lanterna or the Swing interface
+ * With the off-heap storage ({@link FileUtils#isOffHeapStorage()}) the line index and the line hashes are kept outside
+ * of the heap; closing the session unmaps all files and frees their buffers right away (see {@link MappedLines#close()}),
+ * the lines of the session can not be read afterwards
+ *
+ * @see MappedLines
+ */
+public final class DiffSession implements AutoCloseable {
+
+    private final boolean offHeap;
+    private final List<MappedLines> files = new ArrayList<>();
+    private boolean closed;
+
+    private DiffSession(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * @return New session with the storage selected in the settings
+     */
+    public static DiffSession open() {
+        return new DiffSession(FileUtils.isOffHeapStorage());
+    }
+
+    /**
+     * Map a file for this session
+     *
+     * @param file File to read
+     * @return Lines of the file, valid until the session is closed
+     * @throws IOException if the file can not be mapped
+     */
+    synchronized MappedLines map(File file) throws IOException {
+        if (closed) throw new IllegalStateException("Die Diff-Sitzung ist bereits geschlossen");
+        MappedLines lines = MappedLines.map(file, offHeap);
+        files.add(lines);
+        return lines;
+    }
+
+    /**
+     * Release all files of the session, closing twice does nothing
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (MappedLines lines : files) lines.close();
+        files.clear();
+    }
+}
@@ -1,8 +1,8 @@
 package algorithms;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.List;
 
 public enum FileType {
     ZIP(new int[]{0x50, 0x4B, 0x03, 0x04}, new int[]{0x50, 0x4B, 0x05, 0x06}, new int[]{0x50, 0x4B, 0x07, 0x08}), // (comments to fix auto-formating)
@@ -31,8 +31,8 @@ public enum FileType {
     ERROR(-1);
 
     public final int[] magicNumbers;
-    public final Set<int[]> alternativeMagicNumbers = new HashSet<>();
-    public final Set<MagicNumberWithOffset> magicNumbersWithOffset = new HashSet<>();
+    public final List<int[]> alternativeMagicNumbers = new ArrayList<>(); // a list, arrays only have an identity hash
+    public final List<MagicNumberWithOffset> magicNumbersWithOffset = new ArrayList<>();
 
     FileType(int... magicNumbers) {
         this.magicNumbers = magicNumbers;
@@ -6,9 +6,15 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.prefs.Preferences;
 
 public class FileUtils {
 
@@ -43,14 +49,18 @@ public class FileUtils {
             return List.of((fileType == FileType.BINARY ? "Binäre " : fileType) + " Dateien können (noch) nicht verglichen werden.");
         }
         try {
-            List<String> lines = Files.readAllLines(Paths.get(file.toURI()));
-            int lineNumber = 1;
-            for (String line : lines) {
-                line = lineNumber + ":   " + line;
-                lines.set(lineNumber - 1, line);
-                lineNumber++;
-            }
-            return lines;
+            List<String> lines = MappedLines.map(file); // decoded line by line when displayed
+            return new AbstractList<>() { // line numbers are added when a line is displayed, not stored twice
+                @Override
+                public String get(int index) {
+                    return (index + 1) + ":   " + lines.get(index);
+                }
+
+                @Override
+                public int size() {
+                    return lines.size();
+                }
+            };
         } catch (IOException e) {
             return List.of("Fehler beim Lesen der Datei");
         }
@@ -58,26 +68,324 @@ public class FileUtils {
 
     /**
      * Represents the result of comparing two files line by line
-     * Has a List<String> left and a List<String right to represent the lines of the files
+     * The result is stored in columns: row r shows the left line leftIndex[r] and the right line rightIndex[r] with the
+     * operation op[r], the lines themselves are shared with the read files
+     * Line numbers and markers are only formatted when a row is displayed or exported, left() and right() are views
+     * that format their rows on access (e.g. "3: ! changed line")
+     * The highlighted characters inside changed lines are computed on demand for the rows that are displayed and kept in a
+     * small LRU cache shared by all views of the result, {@link #highlights()} computes all rows at once (export)
      *
      * @see java.util.List
+     * @see LineHighlights
      */
-    public record LineResult(List<String> left, List<String> right, List<SpecificLineChange> specificLineChanges) {
-    }
+    public static final class LineResult {
+        public static final byte SAME = 0; // "3:   line" on both sides
+        public static final byte ADDED = 1; // only in the left file, "3: + line"
+        public static final byte REMOVED = 2; // only in the right file, "   - " on the left
+        public static final byte CHANGED = 3; // "3: ! line" on both sides
+        public static final byte MESSAGE = 4; // no diff, the lines are messages that are shown as they are
 
-    /**
-     * Represents a specific change in a line
-     * The lineNumber is the number of the line that has been changed e.g. 5 for the 5th line
-     * The index is the index of the character that has been changed e.g. 5 for the 5th character
-     * The character is the character that has been changed e.g. 'a' for the character 'a'
-     * The displaySide is the side that has the longer line e.g. utils.Side.LEFT if the left line is longer
-     *
-     * @param lineNumber
-     * @param index
-     * @param character
-     * @param displaySide
-     */
-    public record SpecificLineChange(int lineNumber, int index, char character, Side displaySide) {
+        private final List<String> leftLines;
+        private final List<String> rightLines;
+        private final int[] leftIndex; // rows without a left line: index of the next left line
+        private final int[] rightIndex; // rows without a right line: index of the next right line
+        private final byte[] op;
+        private final RangeCache rangeCache; // shared with the swapped view, ranges are stored left file first
+        private final boolean swapped; // right file is shown on the left
+        private String notice; // e.g. the engine had to be replaced, null if there is nothing to report
+        private boolean approximate; // heuristic engine or cut off by the time limit / cost cap
+
+        private LineResult(List<String> leftLines, List<String> rightLines, int[] leftIndex, int[] rightIndex, byte[] op, //
+                           RangeCache rangeCache, boolean swapped) {
+            this.leftLines = leftLines;
+            this.rightLines = rightLines;
+            this.leftIndex = leftIndex;
+            this.rightIndex = rightIndex;
+            this.op = op;
+            this.rangeCache = rangeCache;
+            this.swapped = swapped;
+        }
+
+        /**
+         * Result that only shows messages (e.g. "Binäre Dateien können (noch) nicht verglichen werden.") instead of a diff
+         *
+         * @param leftMessages  Lines shown on the left
+         * @param rightMessages Lines shown on the right
+         * @return LineResult with one MESSAGE row per message line
+         */
+        static LineResult message(List<String> leftMessages, List<String> rightMessages) {
+            int rows = Math.max(leftMessages.size(), rightMessages.size());
+            int[] leftIndex = new int[rows];
+            int[] rightIndex = new int[rows];
+            byte[] op = new byte[rows];
+            for (int row = 0; row < rows; row++) {
+                leftIndex[row] = row;
+                rightIndex[row] = row;
+                op[row] = MESSAGE;
+            }
+            return new LineResult(leftMessages, rightMessages, leftIndex, rightIndex, op, new RangeCache(), false);
+        }
+
+        /**
+         * Same result with the right file shown on the left side (the markers stay with their lines)
+         *
+         * @return Swapped view of this result
+         */
+        public LineResult withSwappedSides() {
+            LineResult swappedResult = new LineResult(leftLines, rightLines, leftIndex, rightIndex, op, rangeCache, !swapped);
+            swappedResult.notice = notice;
+            swappedResult.approximate = approximate;
+            return swappedResult;
+        }
+
+        /**
+         * @return Note for the user about how the result was computed (e.g. a heuristic instead of the selected engine), null if none
+         */
+        public String notice() {
+            return notice;
+        }
+
+        /**
+         * @return true if the diff is valid but not necessarily minimal (heuristic engine, time limit or cost cap exceeded)
+         */
+        public boolean isApproximate() {
+            return approximate;
+        }
+
+        /**
+         * Only called before the result is handed out
+         */
+        void setNotice(String notice, boolean approximate) {
+            this.notice = notice;
+            this.approximate = approximate;
+        }
+
+        /**
+         * @return Number of rows
+         */
+        public int size() {
+            return op.length;
+        }
+
+        /**
+         * @param row Row (starting at 0)
+         * @return SAME, ADDED, REMOVED, CHANGED or MESSAGE
+         */
+        public byte op(int row) {
+            return op[row];
+        }
+
+        /**
+         * Highlighted characters of all rows, every changed line is compared now (e.g. for an export)
+         * The lines are independent, so larger results are compared on the {@link ForkJoinPool} in chunks of about
+         * the same number of characters; the runs are collected in row order afterwards, the result does not depend on the split
+         * The displayed rows should use {@link #highlightRanges(int, Side)} instead, which only compares the rows asked for
+         *
+         * @return Highlighted characters, rows start at 1, columns refer to the formatted lines
+         */
+        public LineHighlights highlights() {
+            int changed = 0;
+            for (byte rowOp : op) if (rowOp == CHANGED) changed++;
+            int[] changedRows = new int[changed];
+            long[] characterSums = new long[changed + 1]; // characters of the changed rows before index i, the work of a chunk
+            for (int row = 0, i = 0; row < op.length; row++) {
+                if (op[row] != CHANGED) continue;
+                changedRows[i] = row;
+                characterSums[i + 1] = characterSums[i] + leftLines.get(leftIndex[row]).length() + rightLines.get(rightIndex[row]).length() + 1;
+                i++;
+            }
+
+            // not cached, a full pass would only evict the displayed rows
+            int[][][] ranges = new int[changed][][];
+            if (characterSums[changed] < PARALLEL_MIN_CHARACTERS) computeRanges(changedRows, ranges, 0, changed);
+            else ForkJoinPool.commonPool().invoke(new RangesTask(changedRows, characterSums, ranges, 0, changed));
+
+            LineHighlights.Builder highlights = new LineHighlights.Builder();
+            for (int i = 0; i < changed; i++) {
+                addRanges(highlights, changedRows[i] + 1, Side.LEFT, ranges[i][swapped ? 1 : 0]);
+                addRanges(highlights, changedRows[i] + 1, Side.RIGHT, ranges[i][swapped ? 0 : 1]);
+            }
+            return highlights.build();
+        }
+
+        private void computeRanges(int[] changedRows, int[][][] ranges, int from, int to) {
+            for (int i = from; i < to; i++) ranges[i] = computeRanges(changedRows[i]);
+        }
+
+        /**
+         * Changed rows [from, to), split at the middle character until a chunk is small enough for one thread
+         */
+        @SuppressWarnings("serial") // never serialized
+        private final class RangesTask extends RecursiveAction {
+            private final int[] changedRows;
+            private final long[] characterSums;
+            private final int[][][] ranges;
+            private final int from;
+            private final int to;
+
+            private RangesTask(int[] changedRows, long[] characterSums, int[][][] ranges, int from, int to) {
+                this.changedRows = changedRows;
+                this.characterSums = characterSums;
+                this.ranges = ranges;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from == 1 || characterSums[to] - characterSums[from] <= CHUNK_CHARACTERS) {
+                    computeRanges(changedRows, ranges, from, to);
+                    return;
+                }
+                long middleCharacters = (characterSums[from] + characterSums[to]) >>> 1;
+                int middle = Arrays.binarySearch(characterSums, from, to + 1, middleCharacters);
+                if (middle < 0) middle = -middle - 1; // first row whose prefix is at least the middle
+                middle = Math.max(from + 1, Math.min(to - 1, middle)); // both halves keep at least one row
+                invokeAll(new RangesTask(changedRows, characterSums, ranges, from, middle), //
+                        new RangesTask(changedRows, characterSums, ranges, middle, to));
+            }
+        }
+
+        /**
+         * Highlighted characters of one row, compared when the row is displayed for the first time and cached afterwards
+         *
+         * @param row  Row (starting at 0)
+         * @param side Displayed side
+         * @return Flat pairs {start, end, start, end, ...} of columns in the formatted line (end exclusive), empty if unchanged
+         */
+        public int[] highlightRanges(int row, Side side) {
+            if (op[row] != CHANGED) return NO_RANGES;
+            int[][] ranges = rangeCache.get(row);
+            if (ranges == null) {
+                ranges = computeRanges(row); // outside the lock, comparing the same row twice is harmless
+                rangeCache.put(row, ranges);
+            }
+            return ranges[(side == Side.LEFT) != swapped ? 0 : 1];
+        }
+
+        /**
+         * Compare a changed row character by character
+         *
+         * @return {ranges of the left file, ranges of the right file} as columns of the formatted lines
+         */
+        private int[][] computeRanges(int row) {
+            String leftString = leftLines.get(leftIndex[row]);
+            String rightString = rightLines.get(rightIndex[row]);
+            int offset = symbolColumn(row) + 2; // "<number>: ! "
+
+            // check if Strings should be compared character by character (distance < 30% of the longer line <=> distance <= ceil(30%) - 1)
+            // similarity and alignment are computed in one pass
+            int maxDistance = (int) Math.ceil(Math.max(leftString.length(), rightString.length()) * 0.3) - 1;
+            InlineDiff.Result inlineDiff = InlineDiff.compare(leftString, rightString, maxDistance);
+            if (inlineDiff.similar()) { // compare inline
+                return new int[][]{shift(inlineDiff.leftRanges(), offset), shift(inlineDiff.rightRanges(), offset)};
+            } // whole lines
+            return new int[][]{wholeLine(leftString, offset), wholeLine(rightString, offset)};
+        }
+
+        private static int[] shift(int[] ranges, int offset) {
+            for (int i = 0; i < ranges.length; i++) ranges[i] += offset; // the ranges are fresh arrays of InlineDiff
+            return ranges;
+        }
+
+        private static int[] wholeLine(String line, int offset) {
+            return line.isEmpty() ? NO_RANGES : new int[]{offset, offset + line.length()};
+        }
+
+        private static void addRanges(LineHighlights.Builder highlights, int row, Side side, int[] ranges) {
+            for (int range = 0; range < ranges.length; range += 2) {
+                highlights.add(row, side, ranges[range], ranges[range + 1]);
+            }
+        }
+
+        /**
+         * @return Formatted lines of the left side (view, formatted on access)
+         */
+        public List<String> left() {
+            return formattedView(!swapped);
+        }
+
+        /**
+         * @return Formatted lines of the right side (view, formatted on access)
+         */
+        public List<String> right() {
+            return formattedView(swapped);
+        }
+
+        /**
+         * @param row Row (starting at 0)
+         * @return Column of the marker ('+', '-', '!' or ' ') in both formatted lines of this row, -1 for messages
+         */
+        public int symbolColumn(int row) {
+            return op[row] == MESSAGE ? -1 : String.valueOf(leftIndex[row] + 1).length() + 2;
+        }
+
+        /**
+         * @param row  Row (starting at 0)
+         * @param side Displayed side
+         * @return Marker of the row on this side: '+' and '-' are only shown next to the left file, '!' on both sides
+         */
+        public char symbol(int row, Side side) {
+            boolean leftFile = (side == Side.LEFT) != swapped;
+            return switch (op[row]) {
+                case CHANGED -> '!';
+                case ADDED -> leftFile ? '+' : ' ';
+                case REMOVED -> leftFile ? '-' : ' ';
+                default -> ' ';
+            };
+        }
+
+        private static final int[] NO_RANGES = new int[0];
+        private static final long PARALLEL_MIN_CHARACTERS = 1L << 16; // below this a single thread is faster than forking
+        private static final long CHUNK_CHARACTERS = 1L << 13;
+
+        /**
+         * Least recently used highlight ranges by row, big enough for a few screens of rows
+         */
+        private static final class RangeCache {
+            private static final int MAX_ROWS = 512;
+            private final Map<Integer, int[][]> rows = new LinkedHashMap<>(64, 0.75f, true) { // access order
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, int[][]> eldest) {
+                    return size() > MAX_ROWS;
+                }
+            };
+
+            private synchronized int[][] get(int row) {
+                return rows.get(row);
+            }
+
+            private synchronized void put(int row, int[][] ranges) {
+                rows.put(row, ranges);
+            }
+        }
+
+        private List<String> formattedView(boolean leftFile) {
+            return new AbstractList<>() {
+                @Override
+                public String get(int row) {
+                    return format(row, leftFile);
+                }
+
+                @Override
+                public int size() {
+                    return op.length;
+                }
+            };
+        }
+
+        private String format(int row, boolean leftFile) {
+            List<String> lines = leftFile ? leftLines : rightLines;
+            int index = leftFile ? leftIndex[row] : rightIndex[row];
+            if (op[row] == MESSAGE) return index < lines.size() ? lines.get(index) : "";
+            int displayedLineNumber = leftIndex[row] + 1; // rows are numbered by the lines of the left file
+            return switch (op[row]) {
+                case REMOVED -> " ".repeat(String.valueOf(displayedLineNumber).length()) + (leftFile ? "  - " : "    " + lines.get(index));
+                case ADDED -> displayedLineNumber + (leftFile ? ": + " + lines.get(index) : ":   ");
+                case CHANGED -> displayedLineNumber + ": ! " + lines.get(index);
+                default -> displayedLineNumber + ":   " + lines.get(index);
+            };
+        }
     }
 
     /**
@@ -94,6 +402,19 @@ public class FileUtils {
      * @see java.util.List
      */
     public static LineResult compareFiles(File leftFile, File rightFile) {
+        return compareFiles(leftFile, rightFile, null);
+    }
+
+    /**
+     * Compare two files line by line, the files are mapped by a session (e.g. the one of a diff view)
+     *
+     * @param leftFile  First file to compare
+     * @param rightFile Second file to compare
+     * @param session   Session that owns the mapped files, null if they are only released by the garbage collector
+     * @return Result of the comparison, its lines can not be read after the session is closed
+     * @see DiffSession
+     */
+    public static LineResult compareFiles(File leftFile, File rightFile, DiffSession session) {
 
         // make sure file type is text (BinaryHeuristics)
         FileType leftFileType = BinaryHeuristics.fileTypeOf(leftFile, false);
@@ -109,87 +430,259 @@ public class FileUtils {
                 if (rightFileType != FileType.TEXT) rightLines.add((rightFileType == FileType.BINARY ? "Binäre " : rightFileType) + " Dateien können (noch) nicht verglichen werden.");
                 else rightLines.add((leftFileType == FileType.BINARY ? "Binäre" : leftFileType) + " Dateien (andere Datei) können (noch) nicht verglichen werden.");
             }
-            return new LineResult(leftLines, rightLines, null);
+            return LineResult.message(leftLines, rightLines);
         }
 
-        // get LineTuples (HuntMcIlroy)
-        List<HuntMcIlroy.StringTuple> stringTuples;
+        List<String> leftLines;
+        List<String> rightLines;
         try {
-            stringTuples = HuntMcIlroy.compare(leftFile, rightFile);
+            leftLines = session == null ? HuntMcIlroy.readLines(leftFile) : session.map(leftFile);
+            rightLines = session == null ? HuntMcIlroy.readLines(rightFile) : session.map(rightFile);
         } catch (IOException e) {
             List<String> errorList = List.of("Fehler beim Lesen einer Datei");
-            return new LineResult(errorList, errorList, null);
+            return LineResult.message(errorList, errorList);
+        } catch (OutOfMemoryError e) {
+            List<String> errorList = List.of("Nicht genug Speicher für den Vergleich");
+            return LineResult.message(errorList, errorList);
+        }
+
+        // get matching sequences (selected DiffAlgorithm if it fits into the memory budget for the trimmed window, the engines keep no state, so parallel calls are fine)
+        DiffAlgorithm requested = getDiffAlgorithm();
+        DiffAlgorithm used;
+        DiffBudget budget = newDiffBudget();
+        List<HuntMcIlroy.MatchingLineSequence> sequences;
+        try {
+            PrefixSuffixTrimmer.SelectedDiff diff = PrefixSuffixTrimmer.diff(leftLines, rightLines, requested, getAvailableMemoryBudget(), budget);
+            sequences = diff.sequences();
+            used = diff.used();
+        } catch (OutOfMemoryError e) { // estimate was too optimistic (e.g. other diffs running at the same time), the heap is free again here
+            used = DiffAlgorithm.MYERS_LINEAR_SPACE;
+            try {
+                sequences = PrefixSuffixTrimmer.diff(leftLines, rightLines, used.engine, budget);
+            } catch (OutOfMemoryError again) {
+                List<String> errorList = List.of("Nicht genug Speicher für den Vergleich");
+                return LineResult.message(errorList, errorList);
+            }
         }
 
-        return createLineResultFrom(stringTuples);
+        LineResult result = createLineResultFrom(leftLines, rightLines, sequences, true);
+        describe(result, requested, used, budget);
+        return result;
     }
 
-    private static LineResult createLineResultFrom(List<HuntMcIlroy.StringTuple> stringTuples) {
-        // inputs for "return LineResult"
-        List<String> leftLines = new ArrayList<>();
-        List<String> rightLines = new ArrayList<>();
-        List<SpecificLineChange> specificLineChanges = new ArrayList<>();
-
-        int actualLineNumber = 1;
-        int displayedLineNumber = 1;
-        for (HuntMcIlroy.StringTuple tuple : stringTuples) {
-            if (tuple.leftLine() == null) { // line removed => -
-                String emptySpaces = " ".repeat(String.valueOf(displayedLineNumber).length());
-                leftLines.add(emptySpaces + "  - ");
-                rightLines.add(emptySpaces + "    " + tuple.rightLine());
-            } else if (tuple.rightLine() == null) { // line added => +
-                leftLines.add(displayedLineNumber + ": + " + tuple.leftLine());
-                rightLines.add(displayedLineNumber + ":   ");
-                displayedLineNumber++;
-            } else if (!tuple.sameLine()) { // lines differ => !
-                specificLineChanges.addAll(getSpecificLineChanges(tuple, actualLineNumber, displayedLineNumber));
-                leftLines.add(displayedLineNumber + ": ! " + tuple.leftLine());
-                rightLines.add(displayedLineNumber + ": ! " + tuple.rightLine());
-                displayedLineNumber++;
-            } else { // same line => " "
-                leftLines.add(displayedLineNumber + ":   " + tuple.leftLine());
-                rightLines.add(displayedLineNumber + ":   " + tuple.rightLine());
-                displayedLineNumber++;
-            }
-            actualLineNumber++;
+    /**
+     * Set the notice of a result: another engine than the selected one, searches cut off by the time limit or the cost cap
+     *
+     * @param result    Result of the diff
+     * @param requested Selected engine
+     * @param used      Engine that was actually used (the least exact one if there were several)
+     * @param budget    Budget of the diff
+     */
+    static void describe(LineResult result, DiffAlgorithm requested, DiffAlgorithm used, DiffBudget budget) {
+        result.setNotice(notice(requested, used, budget), budget.isApproximate() || !used.isExact());
+    }
+
+    /**
+     * Notice of a diff, see {@link #describe(LineResult, DiffAlgorithm, DiffAlgorithm, DiffBudget)}
+     *
+     * @return Notice, null if there is nothing to report
+     */
+    static String notice(DiffAlgorithm requested, DiffAlgorithm used, DiffBudget budget) {
+        String notice = null;
+        if (used != requested && !(requested == DiffAlgorithm.AUTO && used.isExact())) {
+            notice = used.displayName + " statt " + requested.displayName + " verwendet (Speicherbudget)" //
+                    + (used.isExact() ? "" : ", Ergebnis ist heuristisch und evtl. nicht minimal");
         }
-        return new LineResult(leftLines, rightLines, specificLineChanges);
+        if (budget.isApproximate()) {
+            String cause = budget.isTimeExceeded() ? "Zeitbudget (" + getDiffTimeLimitSeconds() + " s) überschritten" : "Suchaufwand begrenzt (schnelle Suche für große Dateien)";
+            if (budget.isTimeExceeded() && budget.isCostExceeded()) cause += " und Suchaufwand begrenzt";
+            String approximate = "Näherung: " + cause + ", die Differenz ist evtl. nicht minimal";
+            notice = notice == null ? approximate : notice + "; " + approximate;
+        }
+        return notice;
     }
 
-    private static List<SpecificLineChange> getSpecificLineChanges(HuntMcIlroy.StringTuple tuple, int actualLineNumber, int displayedLineNumber) {
-        List<SpecificLineChange> newSpecificLineChanges = new ArrayList<>();
-        String leftString = tuple.leftLine();
-        String rightString = tuple.rightLine();
-        String[] leftArray = leftString.split("");
-        String[] rightArray = rightString.split("");
-
-        Side longerSide = leftArray.length > rightArray.length ? Side.LEFT : Side.RIGHT;
-        Side shorterSide = leftArray.length > rightArray.length ? Side.RIGHT : Side.LEFT;
-        String longerString = longerSide == Side.LEFT ? leftString : rightString;
-        String shorterString = longerSide == Side.LEFT ? rightString : leftString;
-
-        // check if Strings should be compared character by character (LevenshteinDistance)
-        if (LevenshteinDistance.of(leftString, rightString) < longerString.length() * 0.3) { // compare inline
-            HuntMcIlroy.DoubleSidedDiffString dsds = HuntMcIlroy.compareString(longerString, shorterString);
-            for (int i = 0; i < dsds.longerDiffString().length(); i++) {
-                if (dsds.longerDiffString().charAt(i) == '!') {
-                    newSpecificLineChanges.add(new SpecificLineChange(actualLineNumber, i + String.valueOf(displayedLineNumber).length() + 4, longerString.charAt(i), longerSide));
-                }
-            }
-            for (int i = 0; i < dsds.shorterDiffString().length(); i++) {
-                if (dsds.shorterDiffString().charAt(i) == '!') {
-                    newSpecificLineChanges.add(new SpecificLineChange(actualLineNumber, i + String.valueOf(displayedLineNumber).length() + 4, shorterString.charAt(i), shorterSide));
-                }
-            }
-        } else {
-            for (int i = 0; i < leftString.length(); i++) {
-                newSpecificLineChanges.add(new SpecificLineChange(actualLineNumber, i + String.valueOf(displayedLineNumber).length() + 4, leftString.charAt(i), Side.LEFT));
-            }
-            for (int i = 0; i < rightString.length(); i++) {
-                newSpecificLineChanges.add(new SpecificLineChange(actualLineNumber, i + String.valueOf(displayedLineNumber).length() + 4, rightString.charAt(i), Side.RIGHT));
+    /**
+     * Get the diff engine used by {@link #compareFiles(File, File)}
+     * The selection is shared by the Lanterna and the Swing interface
+     *
+     * @return Selected DiffAlgorithm (may be AUTO), Myers if nothing has been selected yet
+     */
+    public static DiffAlgorithm getDiffAlgorithm() {
+        Preferences preferences = Preferences.userNodeForPackage(FileUtils.class);
+        String algorithmString = preferences.get("diffAlgorithm", DiffAlgorithm.MYERS.name());
+        for (DiffAlgorithm algorithm : DiffAlgorithm.values()) if (algorithm.name().equals(algorithmString)) return algorithm;
+        return DiffAlgorithm.MYERS;
+    }
+
+    /**
+     * Select and save the diff engine used by {@link #compareFiles(File, File)}
+     *
+     * @param diffAlgorithm DiffAlgorithm to use from now on
+     */
+    public static void setDiffAlgorithm(DiffAlgorithm diffAlgorithm) {
+        Preferences preferences = Preferences.userNodeForPackage(FileUtils.class);
+        preferences.put("diffAlgorithm", diffAlgorithm.name());
+    }
+
+    /**
+     * Get the share of the heap a single diff may use, see {@link #getAvailableMemoryBudget()}
+     *
+     * @return Percent of Runtime.maxMemory(), 50 if nothing has been set yet
+     */
+    public static int getMemoryBudgetPercent() {
+        Preferences preferences = Preferences.userNodeForPackage(FileUtils.class);
+        return Math.max(1, Math.min(90, preferences.getInt("memoryBudgetPercent", 50)));
+    }
+
+    /**
+     * Set and save the share of the heap a single diff may use
+     *
+     * @param percent Percent of Runtime.maxMemory() (1 - 90)
+     */
+    public static void setMemoryBudgetPercent(int percent) {
+        Preferences preferences = Preferences.userNodeForPackage(FileUtils.class);
+        preferences.putInt("memoryBudgetPercent", Math.max(1, Math.min(90, percent)));
+    }
+
+    private static volatile Integer timeLimitOverride; // set from the command line, not saved
+
+    /**
+     * Get the time after which a diff stops searching for the minimal result (see {@link DiffBudget})
+     *
+     * @return Seconds, 0 if every diff is exact no matter how long it takes; 10 if nothing has been set yet
+     */
+    public static int getDiffTimeLimitSeconds() {
+        Integer override = timeLimitOverride;
+        if (override != null) return override;
+        Preferences preferences = Preferences.userNodeForPackage(FileUtils.class);
+        return Math.max(0, preferences.getInt("diffTimeLimitSeconds", 10));
+    }
+
+    /**
+     * @return Budget for a diff that starts now, with the configured time limit, cost cap and the available memory budget
+     */
+    static DiffBudget newDiffBudget() {
+        int timeLimit = getDiffTimeLimitSeconds();
+        DiffBudget budget = timeLimit > 0 ? DiffBudget.ofMillis(timeLimit * 1000L) : DiffBudget.unlimited();
+        if (isSpeedLargeFiles()) budget = budget.withCostCap();
+        return budget.withMemoryLimit(getAvailableMemoryBudget());
+    }
+
+    /**
+     * Set and save the time budget of a diff
+     *
+     * @param seconds Seconds, 0 to always compute exact diffs
+     */
+    public static void setDiffTimeLimitSeconds(int seconds) {
+        Preferences preferences = Preferences.userNodeForPackage(FileUtils.class);
+        preferences.putInt("diffTimeLimitSeconds", Math.max(0, seconds));
+        timeLimitOverride = null;
+    }
+
+    /**
+     * Use another time budget until the program ends without saving it (command line option)
+     *
+     * @param seconds Seconds, 0 to always compute exact diffs
+     */
+    public static void overrideDiffTimeLimitSeconds(int seconds) {
+        timeLimitOverride = Math.max(0, seconds);
+    }
+
+    private static volatile Boolean speedLargeFilesOverride; // set from the command line, not saved
+
+    /**
+     * Get whether every diff caps the search cost of each region (like --speed-large-files of GNU diff, see {@link DiffBudget})
+     *
+     * @return true if expensive regions are split heuristically before the time limit; false if nothing has been set yet
+     */
+    public static boolean isSpeedLargeFiles() {
+        Boolean override = speedLargeFilesOverride;
+        if (override != null) return override;
+        Preferences preferences = Preferences.userNodeForPackage(FileUtils.class);
+        return preferences.getBoolean("speedLargeFiles", false);
+    }
+
+    /**
+     * Set and save the cost cap of a diff
+     *
+     * @param speedLargeFiles true to split expensive regions heuristically, false to search until the time limit
+     */
+    public static void setSpeedLargeFiles(boolean speedLargeFiles) {
+        Preferences preferences = Preferences.userNodeForPackage(FileUtils.class);
+        preferences.putBoolean("speedLargeFiles", speedLargeFiles);
+        speedLargeFilesOverride = null;
+    }
+
+    /**
+     * Cap the search cost until the program ends without saving it (command line option)
+     */
+    public static void overrideSpeedLargeFiles() {
+        speedLargeFilesOverride = true;
+    }
+
+    /**
+     * @return true if the diff views keep the line index of the compared files outside of the heap ({@link DiffSession})
+     */
+    public static boolean isOffHeapStorage() {
+        Preferences preferences = Preferences.userNodeForPackage(FileUtils.class);
+        return preferences.getBoolean("offHeapStorage", false);
+    }
+
+    /**
+     * Set and save the storage of the line index, used by the next diff session
+     *
+     * @param offHeap true for direct buffers outside of the heap
+     */
+    public static void setOffHeapStorage(boolean offHeap) {
+        Preferences preferences = Preferences.userNodeForPackage(FileUtils.class);
+        preferences.putBoolean("offHeapStorage", offHeap);
+    }
+
+    /**
+     * @return Bytes the next diff may use: the configured share of the heap, but never more than is currently free
+     */
+    static long getAvailableMemoryBudget() {
+        Runtime runtime = Runtime.getRuntime();
+        long configured = runtime.maxMemory() / 100 * getMemoryBudgetPercent();
+        long free = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        return Math.min(configured, free);
+    }
+
+    /**
+     * Build the columns of a result from the matching sequences of a diff, the lines themselves are not read
+     * (only the lines of gaps for the similarity pairing)
+     *
+     * @param pairBySimilarity false to pair the changed lines by position, see {@link HuntMcIlroy#forEachRow}
+     */
+    static LineResult createLineResultFrom(List<String> leftLines, List<String> rightLines, List<HuntMcIlroy.MatchingLineSequence> sequences, //
+                                           boolean pairBySimilarity) {
+        int sameLines = 0;
+        for (HuntMcIlroy.MatchingLineSequence sequence : sequences) sameLines += sequence.length();
+        int maxRows = leftLines.size() + rightLines.size() - sameLines; // every other line gets a row of its own at most
+        int[] leftIndex = new int[maxRows];
+        int[] rightIndex = new int[maxRows];
+        byte[] op = new byte[maxRows];
+        int[] state = new int[3]; // rows, next left line, next right line
+        HuntMcIlroy.forEachRow(leftLines, rightLines, sequences, pairBySimilarity, (left, right, sameLine) -> {
+            int row = state[0]++;
+            leftIndex[row] = left < 0 ? state[1] : left;
+            rightIndex[row] = right < 0 ? state[2] : right;
+            if (left < 0) { // line removed => -
+                op[row] = LineResult.REMOVED;
+            } else if (right < 0) { // line added => +
+                op[row] = LineResult.ADDED;
+            } else if (!sameLine) { // lines differ => !
+                op[row] = LineResult.CHANGED; // characters are compared when the row is displayed
+            } else { // same line => " "
+                op[row] = LineResult.SAME;
             }
-        }
-        return newSpecificLineChanges;
+            if (left >= 0) state[1] = left + 1;
+            if (right >= 0) state[2] = right + 1;
+        });
+        int rows = state[0];
+        return new LineResult(leftLines, rightLines, Arrays.copyOf(leftIndex, rows), Arrays.copyOf(rightIndex, rows), Arrays.copyOf(op, rows), //
+                new LineResult.RangeCache(), false);
     }
 
     /**
@@ -217,7 +710,7 @@ public class FileUtils {
                     return false;
                 }
                 try {
-                    List<String> res = result.left();
+                    List<String> res = new ArrayList<>(result.left()); // formatted copy, the result itself is only a view
                     res.add("\n\n\n==============================================================\n\n\n");
                     res.addAll(result.right());
 
@@ -233,6 +726,19 @@ public class FileUtils {
 
     public static boolean saveDiffAsHTML(File firstFile, File secondFile, File saveFile, LineResult lineResult) {
         if (lineResult != null || (firstFile != null && secondFile != null)) {
+            if (lineResult == null && saveFile != null && StreamingDiff.isTooLarge(firstFile, secondFile) //
+                    && BinaryHeuristics.fileTypeOf(firstFile, false) == FileType.TEXT && BinaryHeuristics.fileTypeOf(secondFile, false) == FileType.TEXT) {
+                File htmlFile = new File(saveFile.getAbsolutePath() + ".html");
+                if (htmlFile.exists()) {
+                    return false;
+                }
+                try { // larger than the memory budget, written while it is compared (an approximate diff ends with its notice)
+                    StreamingDiff.write(firstFile, secondFile, htmlFile, StreamingDiff.Format.HTML);
+                    return true;
+                } catch (IOException e) {
+                    return false;
+                }
+            }
             FileUtils.LineResult result = (lineResult == null) ? FileUtils.compareFiles(firstFile, secondFile) : lineResult;
 
             if(lineResult != null && (lineResult.left() == null || lineResult.right() == null)) {
@@ -247,26 +753,22 @@ public class FileUtils {
                 try {
 
                     StringBuilder html = new StringBuilder();
-                    html.append("<html><head><style>table {border-collapse: collapse;} td {border: 1px solid black; padding: 5px;} .yellow {background-color: yellow;} .green {background-color: lightgreen;} .red {background-color: lightcoral;}</style></head><body><table>");
+                    html.append(HTML_HEAD);
                     if (firstFile != null && secondFile != null) {
                         html.append("<tr><td>").append(firstFile.getName()).append("</td><td>").append(secondFile.getName()).append("</td></tr>");
                         html.append("<tr><td>").append(firstFile.getAbsolutePath()).append("</td><td>").append(secondFile.getAbsolutePath()).append("</td></tr>");
                     }
-                    for (int i = 0; i < result.left().size(); i++) {
-                        String leftLine = escapeHtml(result.left().get(i));
-                        String rightLine = escapeHtml(result.right().get(i));
+                    List<String> left = result.left();
+                    List<String> right = result.right();
+                    LineHighlights highlights = result.highlights(); // all rows, compared once
+                    for (int i = 0; i < result.size(); i++) {
                         int lineIndex = i + 1;
-                        if (leftLine.contains("!") && leftLine.indexOf("!") < String.valueOf(lineIndex).length() + 4) {
-                            html.append("<tr><td class=\"yellow\">").append(leftLine).append("</td><td class=\"yellow\">").append(rightLine).append("</td></tr>");
-                        } else if (leftLine.contains("+") && leftLine.indexOf("+") < String.valueOf(lineIndex).length() + 4) {
-                            html.append("<tr><td class=\"green\">").append(leftLine).append("</td><td class=\"green\">").append(rightLine).append("</td></tr>");
-                        } else if (leftLine.contains("-") && leftLine.indexOf("-") < String.valueOf(lineIndex).length() + 4) {
-                            html.append("<tr><td class=\"red\">").append(leftLine).append("</td><td class=\"red\">").append(rightLine).append("</td></tr>");
-                        } else {
-                            html.append("<tr><td>").append(leftLine).append("</td><td>").append(rightLine).append("</td></tr>");
-                        }
+                        String leftLine = highlightHtml(left.get(i), highlights, lineIndex, Side.LEFT);
+                        String rightLine = highlightHtml(right.get(i), highlights, lineIndex, Side.RIGHT);
+                        html.append(htmlRow(leftLine, rightLine, result.symbol(i, Side.LEFT)));
                     }
-                    html.append("</table></body></html>");
+                    if (result.notice() != null) html.append(htmlNotice(result.notice()));
+                    html.append(HTML_TAIL);
 
 
                     Files.write(saveFile.toPath(), html.toString().getBytes());
@@ -279,13 +781,65 @@ public class FileUtils {
         return false;
     }
 
+    static final String HTML_HEAD = "<html><head><style>table {border-collapse: collapse;} td {border: 1px solid black; padding: 5px;} .yellow {background-color: yellow;} .green {background-color: lightgreen;} .red {background-color: lightcoral;} .changed {background-color: orange;}</style></head><body><table>";
+    static final String HTML_TAIL = "</table></body></html>";
+
+    /**
+     * Last row of the HTML export, tells why the diff is approximate or which engine was used instead
+     *
+     * @param notice Notice of the diff
+     * @return Row over both columns
+     */
+    static String htmlNotice(String notice) {
+        return "<tr><td colspan=\"2\" class=\"yellow\">" + escapeHtml(notice) + "</td></tr>";
+    }
+
+    /**
+     * One table row of the HTML export
+     *
+     * @param leftHtml  Escaped left line
+     * @param rightHtml Escaped right line
+     * @param symbol    Marker of the left line, decides the color of the row
+     * @return Row with both cells
+     */
+    static String htmlRow(String leftHtml, String rightHtml, char symbol) {
+        String cell = symbol == '!' ? "<td class=\"yellow\">" : symbol == '+' ? "<td class=\"green\">" : symbol == '-' ? "<td class=\"red\">" : "<td>";
+        return "<tr>" + cell + leftHtml + "</td>" + cell + rightHtml + "</td></tr>";
+    }
+
+    /**
+     * Escape a displayed line for HTML and mark its highlighted ranges with a "changed" span
+     *
+     * @param line       Displayed line
+     * @param highlights Highlights of the whole result
+     * @param row        Row of the line (starting at 1)
+     * @param side       Side of the line
+     * @return Escaped line with spans
+     */
+    private static String highlightHtml(String line, LineHighlights highlights, int row, Side side) {
+        if (highlights == null || highlights.firstRun(row) == highlights.endRun(row)) return escapeHtml(line);
+        StringBuilder html = new StringBuilder(line.length() + 64);
+        int column = 0;
+        for (int run = highlights.firstRun(row); run < highlights.endRun(row); run++) {
+            if (highlights.side(run) != side) continue;
+            int start = Math.min(Math.max(column, highlights.startColumn(run)), line.length());
+            int end = Math.min(highlights.endColumn(run), line.length());
+            if (start >= end) continue;
+            html.append(escapeHtml(line.substring(column, start)));
+            html.append("<span class=\"changed\">").append(escapeHtml(line.substring(start, end))).append("</span>");
+            column = end;
+        }
+        html.append(escapeHtml(line.substring(column)));
+        return html.toString();
+    }
+
     /**
      * Escape HTML characters (< and >) so they are not interpreted as HTML tags
      *
      * @param str String to escape
      * @return Escaped string
      */
-    private static String escapeHtml(String str) {
+    static String escapeHtml(String str) {
         return str.replace("<", "&lt;").replace(">", "&gt;");
     }
 }
\ No newline at end of file
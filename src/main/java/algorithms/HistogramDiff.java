@@ -0,0 +1,167 @@
+package algorithms;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Histogram diff as known from git/JGit
+ * For every region the occurrences of the left lines are counted (histogram) and the longest common region
+ * built around the lines with the lowest number of occurrences is used to split the region into two independent halves
+ * Large files are partitioned into many small subproblems, regions with only very common lines fall back to {@link MyersLinearSpace}
+ * The regions are kept on an explicit stack instead of the call stack, files that split into thousands of nested regions
+ * (e.g. every pair of lines swapped) can not overflow it; regions nested deeper than {@link #MAX_DEPTH} go to the fallback too
+ *
+ * @see PatienceDiff
+ */
+public class HistogramDiff implements DiffEngine {
+
+    /**
+     * Lines that occur more often than this in a region are not used as split points
+     */
+    private static final int MAX_CHAIN_LENGTH = 64;
+    /**
+     * Regions nested deeper than this are diffed by the fallback, every level counts the lines of its region again
+     */
+    private static final int MAX_DEPTH = 1024;
+
+    @Override
+    public List<HuntMcIlroy.MatchingLineSequence> getMatchingLineSequences(int[] left, int[] right, int distinct) {
+        return getMatchingLineSequences(left, right, distinct, DiffBudget.unlimited());
+    }
+
+    @Override
+    public List<HuntMcIlroy.MatchingLineSequence> getMatchingLineSequences(int[] left, int[] right, int distinct, DiffBudget budget) {
+        Matcher matcher = new Matcher(left, right, distinct, budget);
+        matcher.diff(0, left.length, 0, right.length);
+        matcher.result.sort(Comparator.comparingInt(HuntMcIlroy.MatchingLineSequence::startLeft)); // regions finish out of order
+        return matcher.result;
+    }
+
+    /**
+     * State of one diff call
+     */
+    private static final class Matcher {
+
+        private final int[] left;
+        private final int[] right;
+        // histogram of the current left region, reset after every region
+        private final int[] count; // per token
+        private final int[] firstOccurrence; // per token, start of the occurrence chain
+        private final int[] nextOccurrence; // per left line, next line with the same token
+        private final List<HuntMcIlroy.MatchingLineSequence> result = new ArrayList<>();
+        private final DiffBudget budget; // only used by the fallback
+
+        private Matcher(int[] left, int[] right, int distinct, DiffBudget budget) {
+            this.left = left;
+            this.right = right;
+            this.budget = budget;
+            count = new int[distinct];
+            firstOccurrence = new int[distinct];
+            Arrays.fill(firstOccurrence, -1);
+            nextOccurrence = new int[left.length];
+        }
+
+        private void diff(int leftStart, int leftEnd, int rightStart, int rightEnd) {
+            Deque<int[]> regions = new ArrayDeque<>(); // {leftStart, leftEnd, rightStart, rightEnd, depth}
+            regions.push(new int[]{leftStart, leftEnd, rightStart, rightEnd, 0});
+            while (!regions.isEmpty()) {
+                int[] next = regions.pop();
+                diffRegion(next[0], next[1], next[2], next[3], next[4], regions);
+            }
+        }
+
+        /**
+         * Add the common prefix, suffix and split region of one region, the halves left and right of it are pushed
+         */
+        private void diffRegion(int leftStart, int leftEnd, int rightStart, int rightEnd, int depth, Deque<int[]> regions) {
+            // common prefix
+            int prefix = 0;
+            while (leftStart + prefix < leftEnd && rightStart + prefix < rightEnd && left[leftStart + prefix] == right[rightStart + prefix]) prefix++;
+            if (prefix > 0) result.add(new HuntMcIlroy.MatchingLineSequence(leftStart, rightStart, prefix));
+            leftStart += prefix;
+            rightStart += prefix;
+
+            // common suffix
+            int suffix = 0;
+            while (leftStart < leftEnd - suffix && rightStart < rightEnd - suffix && left[leftEnd - suffix - 1] == right[rightEnd - suffix - 1]) suffix++;
+            leftEnd -= suffix;
+            rightEnd -= suffix;
+            if (suffix > 0) result.add(new HuntMcIlroy.MatchingLineSequence(leftEnd, rightEnd, suffix));
+
+            if (leftStart < leftEnd && rightStart < rightEnd) {
+                if (depth >= MAX_DEPTH) { // pathological nesting, the linear space diff is cheaper than more histogram passes
+                    MyersLinearSpace.addMatchingLineSequences(left, leftStart, leftEnd, right, rightStart, rightEnd, result, budget);
+                    return;
+                }
+                int[] region = getLowestOccurrenceRegion(leftStart, leftEnd, rightStart, rightEnd);
+                if (region == null) { // common lines exist, but all of them are too frequent
+                    MyersLinearSpace.addMatchingLineSequences(left, leftStart, leftEnd, right, rightStart, rightEnd, result, budget);
+                } else if (region[2] > 0) {
+                    result.add(new HuntMcIlroy.MatchingLineSequence(region[0], region[1], region[2]));
+                    regions.push(new int[]{region[0] + region[2], leftEnd, region[1] + region[2], rightEnd, depth + 1});
+                    regions.push(new int[]{leftStart, region[0], rightStart, region[1], depth + 1});
+                } // else: no common lines at all, everything in this region differs
+            }
+        }
+
+        /**
+         * Search the longest common region that contains the least frequent lines of the left region
+         *
+         * @return {startLeft, startRight, length}, length 0 if both regions have no line in common,
+         * null if all common lines occur more than {@link #MAX_CHAIN_LENGTH} times
+         */
+        private int[] getLowestOccurrenceRegion(int leftStart, int leftEnd, int rightStart, int rightEnd) {
+            for (int i = leftEnd - 1; i >= leftStart; i--) { // backwards, so the chains are in ascending order
+                int token = left[i];
+                count[token]++;
+                nextOccurrence[i] = firstOccurrence[token];
+                firstOccurrence[token] = i;
+            }
+
+            boolean anyCommon = false;
+            int bestCount = MAX_CHAIN_LENGTH + 1;
+            int[] best = {0, 0, 0};
+            for (int j = rightStart; j < rightEnd; ) {
+                int token = right[j];
+                int nextJ = j + 1;
+                if (count[token] > 0) anyCommon = true;
+                if (count[token] > 0 && count[token] <= bestCount) {
+                    for (int i = firstOccurrence[token]; i != -1; i = nextOccurrence[i]) {
+                        // grow the region around (i, j) in both directions
+                        int startLeft = i;
+                        int startRight = j;
+                        int endLeft = i + 1;
+                        int endRight = j + 1;
+                        int regionCount = count[token];
+                        while (startLeft > leftStart && startRight > rightStart && left[startLeft - 1] == right[startRight - 1]) {
+                            startLeft--;
+                            startRight--;
+                            regionCount = Math.min(regionCount, count[left[startLeft]]);
+                        }
+                        while (endLeft < leftEnd && endRight < rightEnd && left[endLeft] == right[endRight]) {
+                            regionCount = Math.min(regionCount, count[left[endLeft]]);
+                            endLeft++;
+                            endRight++;
+                        }
+                        if (regionCount < bestCount || (regionCount == bestCount && endLeft - startLeft > best[2])) {
+                            best = new int[]{startLeft, startRight, endLeft - startLeft};
+                            bestCount = regionCount;
+                        }
+                        nextJ = Math.max(nextJ, endRight); // the rest of this region can not start a better one
+                    }
+                }
+                j = nextJ;
+            }
+
+            for (int i = leftStart; i < leftEnd; i++) { // reset histogram for the next region
+                count[left[i]] = 0;
+                firstOccurrence[left[i]] = -1;
+            }
+            return (anyCommon && best[2] == 0) ? null : best;
+        }
+    }
+}
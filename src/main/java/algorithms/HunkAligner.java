@@ -0,0 +1,127 @@
+package algorithms;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pairs the changed lines of one gap between two matching sequences (hunk) by similarity instead of by position
+ * Every line gets a signature of its q-grams (sorted hashes of all substrings of length Q, padded at the start);
+ * one edit destroys at most Q q-grams, so two lines that share too few q-grams can never pass the 30% rule of the
+ * inline diff and are not paired at all (Ukkonen's q-gram lemma)
+ * The remaining candidates are assigned with an order preserving DP that maximizes the shared q-grams (a weighted LCS),
+ * lines without a partner are shown as added / removed lines
+ *
+ * @see HuntMcIlroy#toStringTuples(List, List, List)
+ * @see InlineDiff
+ */
+final class HunkAligner {
+
+    private static final int Q = 3;
+    /**
+     * Larger gaps are paired by position like before, the DP table has one int per pair of lines
+     */
+    private static final long MAX_CELLS = 1L << 20;
+    static final int UNPAIRED = -1;
+
+    private HunkAligner() {
+    }
+
+    /**
+     * Pair the lines of a gap
+     *
+     * @param leftLines  All left lines
+     * @param leftStart  First left line of the gap
+     * @param leftEnd    Line after the last left line of the gap
+     * @param rightLines All right lines
+     * @param rightStart First right line of the gap
+     * @param rightEnd   Line after the last right line of the gap
+     * @return For every left line of the gap (index - leftStart) the paired right line or {@link #UNPAIRED}, ascending
+     */
+    static int[] pair(List<String> leftLines, int leftStart, int leftEnd, List<String> rightLines, int rightStart, int rightEnd) {
+        int n = leftEnd - leftStart;
+        int m = rightEnd - rightStart;
+        int[] pairs = new int[n];
+        Arrays.fill(pairs, UNPAIRED);
+        if (n == 0 || m == 0) return pairs;
+        if ((long) (n + 1) * (m + 1) > MAX_CELLS) return pairByPosition(leftStart, leftEnd, rightStart, rightEnd); // too large for the DP
+
+        int[][] leftGrams = new int[n][];
+        int[][] rightGrams = new int[m][];
+        for (int i = 0; i < n; i++) leftGrams[i] = qGrams(leftLines.get(leftStart + i));
+        for (int j = 0; j < m; j++) rightGrams[j] = qGrams(rightLines.get(rightStart + j));
+
+        // score[i][j]: most shared q-grams of an order preserving pairing of the first i left and j right lines
+        int cols = m + 1;
+        int[] score = new int[(n + 1) * cols];
+        for (int i = 1; i <= n; i++) {
+            for (int j = 1; j <= m; j++) {
+                int best = Math.max(score[(i - 1) * cols + j], score[i * cols + j - 1]);
+                int weight = weight(leftGrams[i - 1], rightGrams[j - 1]);
+                if (weight > 0) best = Math.max(best, score[(i - 1) * cols + j - 1] + weight);
+                score[i * cols + j] = best;
+            }
+        }
+
+        // traceback, pairs are taken as late as possible
+        int i = n;
+        int j = m;
+        while (i > 0 && j > 0) {
+            int current = score[i * cols + j];
+            if (current == score[(i - 1) * cols + j]) i--;
+            else if (current == score[i * cols + j - 1]) j--;
+            else { // only the diagonal can explain the score
+                pairs[i - 1] = rightStart + j - 1;
+                i--;
+                j--;
+            }
+        }
+        return pairs;
+    }
+
+    /**
+     * Pair the first left line with the first right line, the second with the second, ...
+     *
+     * @return Pairs in the format of {@link #pair(List, int, int, List, int, int)}
+     */
+    static int[] pairByPosition(int leftStart, int leftEnd, int rightStart, int rightEnd) {
+        int[] pairs = new int[leftEnd - leftStart];
+        Arrays.fill(pairs, UNPAIRED);
+        for (int i = 0; i < Math.min(pairs.length, rightEnd - rightStart); i++) pairs[i] = rightStart + i;
+        return pairs;
+    }
+
+    /**
+     * @return Shared q-grams of two lines, 0 if the lines can not be similar enough for an inline diff
+     */
+    private static int weight(int[] a, int[] b) {
+        int longer = Math.max(a.length, b.length); // one q-gram per character (padded)
+        int maxDistance = (int) Math.ceil(longer * 0.3) - 1; // same rule as the inline diff in FileUtils
+        if (maxDistance < 0 || Math.abs(a.length - b.length) > maxDistance) return 0;
+        int required = longer - maxDistance * Q; // fewer shared q-grams => distance > maxDistance
+        int shared = 0;
+        for (int x = 0, y = 0; x < a.length && y < b.length; ) { // merge of two sorted multisets
+            if (a[x] < b[y]) x++;
+            else if (a[x] > b[y]) y++;
+            else {
+                shared++;
+                x++;
+                y++;
+            }
+        }
+        return shared >= Math.max(1, required) ? shared : 0;
+    }
+
+    /**
+     * @return Sorted hashes of the q-grams of the line, padded with Q - 1 characters at the start (one per character)
+     */
+    private static int[] qGrams(String line) {
+        int[] grams = new int[line.length()];
+        for (int i = 0; i < line.length(); i++) {
+            int hash = 0;
+            for (int k = i - Q + 1; k <= i; k++) hash = hash * 31 + (k >= 0 ? line.charAt(k) : 0); // collisions only add shared q-grams
+            grams[i] = hash;
+        }
+        Arrays.sort(grams);
+        return grams;
+    }
+}
@@ -2,25 +2,99 @@ package algorithms;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.*;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
-public class HuntMcIlroy {
-    private static List<String> leftLines;
-    private static List<String> rightLines;
+/**
+ * Line diff with the full LCS matrix (Hunt & McIlroy), also provides the character diff of single lines
+ * and the helpers shared by all line diff engines
+ *
+ * @see DiffEngine
+ */
+public class HuntMcIlroy implements DiffEngine {
+
+    @Override
+    public List<MatchingLineSequence> getMatchingLineSequences(int[] leftTokens, int[] rightTokens, int distinct) {
+        return getMatchingLineSequences(leftTokens, rightTokens, distinct, DiffBudget.unlimited());
+    }
 
-    public static List<StringTuple> compare(File leftFile, File rightFile) throws IOException {
-        int[][] hmiMatrix = huntMcIlroyMatrix(leftFile, rightFile);
+    @Override
+    public List<MatchingLineSequence> getMatchingLineSequences(int[] leftTokens, int[] rightTokens, int distinct, DiffBudget budget) {
+        if (leftTokens.length == 0 || rightTokens.length == 0) return new ArrayList<>();
+        long cells = (long) leftTokens.length * rightTokens.length;
+        boolean tooExpensive = budget.isLimited() && cells > (long) budget.costLimit(leftTokens.length, rightTokens.length) * (leftTokens.length + rightTokens.length);
+        if (cells > WavefrontLcs.MAX_CELLS || tooExpensive) { // matrix does not fit into an array, or costs more than the cost cap allows
+            List<MatchingLineSequence> result = new ArrayList<>(); // same LCS length, computed in linear space (within the budget)
+            MyersLinearSpace.addMatchingLineSequences(leftTokens, 0, leftTokens.length, rightTokens, 0, rightTokens.length, result, budget);
+            return result;
+        }
+        int[] hmiMatrix = WavefrontLcs.fill(leftTokens, rightTokens); // parallel on all cores
 
-        List<MatchingLineSequence> matchingLineSequences = getMatchingLineSequences(hmiMatrix);
+        List<MatchingLineSequence> matchingLineSequences = getMatchingLineSequences(hmiMatrix, leftTokens.length, rightTokens.length);
         Collections.reverse(matchingLineSequences); // sameLineSequences were read in reversed order
-        matchingLineSequences.add(0, new MatchingLineSequence(-1, -1, 1)); // startmarker (place filler)
+        return matchingLineSequences;
+    }
 
+    /**
+     * Turn the matching line sequences of a diff into StringTuples
+     * Lines between two sequences are paired by similarity ({@link HunkAligner}), the rest is only present on one side
+     *
+     * @param leftLines             Lines of the left file
+     * @param rightLines            Lines of the right file
+     * @param matchingLineSequences Sequences of equal lines in ascending order
+     * @return List of StringTuples covering every line of both files
+     */
+    static List<StringTuple> toStringTuples(List<String> leftLines, List<String> rightLines, List<MatchingLineSequence> matchingLineSequences) {
+        return toStringTuples(leftLines, rightLines, matchingLineSequences, true);
+    }
+
+    /**
+     * Turn the matching line sequences of a diff into StringTuples
+     *
+     * @param leftLines             Lines of the left file
+     * @param rightLines            Lines of the right file
+     * @param matchingLineSequences Sequences of equal lines in ascending order
+     * @param pairBySimilarity      false to pair the lines between two sequences by position (faster, e.g. for a preliminary result)
+     * @return List of StringTuples covering every line of both files
+     */
+    static List<StringTuple> toStringTuples(List<String> leftLines, List<String> rightLines, List<MatchingLineSequence> matchingLineSequences, //
+                                            boolean pairBySimilarity) {
         List<StringTuple> result = new ArrayList<>();
+        forEachRow(leftLines, rightLines, matchingLineSequences, pairBySimilarity, (leftIndex, rightIndex, sameLine) -> //
+                result.add(new StringTuple(leftIndex, leftIndex < 0 ? null : leftLines.get(leftIndex), //
+                        rightIndex, rightIndex < 0 ? null : rightLines.get(rightIndex), sameLine)));
+        return result;
+    }
+
+    /**
+     * Receives the rows of a diff in order, without the lines themselves (they are not decoded for this)
+     */
+    interface RowConsumer {
+        /**
+         * @param leftIndex  Left line of the row, -1 if the row has only a right line
+         * @param rightIndex Right line of the row, -1 if the row has only a left line
+         * @param sameLine   true if both lines are equal (part of a matching sequence)
+         */
+        void row(int leftIndex, int rightIndex, boolean sameLine);
+    }
+
+    /**
+     * Walk the rows of a diff: the matching line sequences and the paired / unpaired lines of the gaps between them
+     *
+     * @param leftLines             Lines of the left file, only the lines of gaps are read (for the similarity pairing)
+     * @param rightLines            Lines of the right file
+     * @param matchingLineSequences Sequences of equal lines in ascending order
+     * @param pairBySimilarity      false to pair the lines between two sequences by position
+     * @param consumer              Gets every row in order
+     */
+    static void forEachRow(List<String> leftLines, List<String> rightLines, List<MatchingLineSequence> matchingLineSequences, //
+                           boolean pairBySimilarity, RowConsumer consumer) {
+        matchingLineSequences = new ArrayList<>(matchingLineSequences);
+        matchingLineSequences.add(0, new MatchingLineSequence(-1, -1, 1)); // startmarker (place filler)
+        matchingLineSequences.add(new MatchingLineSequence(leftLines.size(), rightLines.size(), 0)); // endmarker (remaining lines)
+
         for (int i = 0; i < matchingLineSequences.size() - 1; i++) { // iterate over subsequences
             MatchingLineSequence last = matchingLineSequences.get(i);
             MatchingLineSequence next = matchingLineSequences.get(i + 1);
@@ -28,62 +102,45 @@ public class HuntMcIlroy {
             int rightStart = last.startRight() + last.length();
             int leftLimit = next.startLeft();
             int rightLimit = next.startRight();
-            while (leftStart < leftLimit && rightStart < rightLimit) { // add DIFFERENT lines that are in both sides
-                result.add(new StringTuple(leftStart, leftLines.get(leftStart), rightStart, rightLines.get(rightStart), false));
-                leftStart++;
-                rightStart++;
-            }
-            while (leftStart < leftLimit) { // add remaining DIFFERENT lines (only in left)
-                result.add(new StringTuple(leftStart, leftLines.get(leftStart), -1, null, false));
-                leftStart++;
-            }
-            while (rightStart < rightLimit) { // OR add DIFFERENT remaining lines (only in right)
-                result.add(new StringTuple(-1, null, rightStart, rightLines.get(rightStart), false));
-                rightStart++;
-            }
-            for (int j = 0; j < next.length; j++) { // add SAME lines of next block
-                result.add(new StringTuple(leftStart + j, leftLines.get(leftStart + j), rightStart + j, rightLines.get(rightStart + j), true));
+            // pair the DIFFERENT lines of the gap by similarity, lines in between stay unpaired (only in left / only in right)
+            int[] pairs = pairBySimilarity ? HunkAligner.pair(leftLines, leftStart, leftLimit, rightLines, rightStart, rightLimit) //
+                    : HunkAligner.pairByPosition(leftStart, leftLimit, rightStart, rightLimit);
+            int gapStart = leftStart;
+            for (int left = gapStart; left < leftLimit; left++) {
+                int right = pairs[left - gapStart];
+                if (right == HunkAligner.UNPAIRED) continue;
+                while (leftStart < left) consumer.row(leftStart++, -1, false); // DIFFERENT lines only in left before the pair
+                while (rightStart < right) consumer.row(-1, rightStart++, false); // DIFFERENT lines only in right before the pair
+                consumer.row(leftStart++, rightStart++, false);
             }
+            while (leftStart < leftLimit) consumer.row(leftStart++, -1, false); // add remaining DIFFERENT lines (only in left)
+            while (rightStart < rightLimit) consumer.row(-1, rightStart++, false); // OR add DIFFERENT remaining lines (only in right)
+            for (int j = 0; j < next.length; j++) consumer.row(leftStart + j, rightStart + j, true); // add SAME lines of next block
         }
-        return result;
     }
 
-    public record StringTuple(int leftIndex, String leftLine, int rightIndex, String rightLine, boolean sameLine) {
+    /**
+     * Lines of a file, mapped and decoded on demand ({@link MappedLines})
+     */
+    static List<String> readLines(File file) throws IOException {
+        return MappedLines.map(file);
     }
 
-    private static int[][] huntMcIlroyMatrix(File leftFile, File rightFile) throws IOException {
-        leftLines = Files.readAllLines(leftFile.toPath(), StandardCharsets.UTF_8);
-        rightLines = Files.readAllLines(rightFile.toPath(), StandardCharsets.UTF_8);
-
-        int[][] hmiMatrix = new int[leftLines.size()][rightLines.size()];
-
-        // fill hmiMatrix
-        for (int row = 0; row < leftLines.size(); row++) {
-            for (int col = 0; col < rightLines.size(); col++) {
-                String leftLine = leftLines.get(row).replaceFirst("^\\s+", ""); // ignore leading whitespaces (^ means at the start of string)
-                String rightLine = rightLines.get(col).replaceFirst("^\\s+", ""); // ignore leading whitespaces (^ means at the start of string)
-                hmiMatrix[row][col] = leftLine.equals(rightLine) ? // lines are equal?
-                        getMatrixData(hmiMatrix, row - 1, col - 1) + 1 :// ggZ wächst um 1
-                        max( // ggz bleibt bei einseitigem Anhängen eines Buchstaben gleich (→ größtmöglicher Wert)
-                                getMatrixData(hmiMatrix, row - 1, col), //
-                                getMatrixData(hmiMatrix, row, col - 1));
-            }
-        }
-        return hmiMatrix;
+    public record StringTuple(int leftIndex, String leftLine, int rightIndex, String rightLine, boolean sameLine) {
     }
 
-    private static List<MatchingLineSequence> getMatchingLineSequences(int[][] hmiMatrix) {
+    private static List<MatchingLineSequence> getMatchingLineSequences(int[] hmiMatrix, int rows, int cols) {
         List<MatchingLineSequence> result = new ArrayList<>();
-        int row = leftLines.size() - 1; // bottom row
-        int col = rightLines.size() - 1; // most right column
-        int currentExpected = hmiMatrix[hmiMatrix.length - 1][hmiMatrix[0].length - 1]; // bottom right field
+        int row = rows - 1; // bottom row
+        int col = cols - 1; // most right column
+        int currentExpected = hmiMatrix[rows * cols - 1]; // bottom right field
         while (row >= 0 && col >= 0) {
             int oldRow = row;
-            int currentEntry = getMatrixData(hmiMatrix, row, col);
+            int currentEntry = getMatrixData(hmiMatrix, cols, row, col);
             // replacement for leftLines.get(row).equals(rightLines.get(col)) (expensive)
-            boolean leftDiagonalTopAllLower = currentEntry > max(getMatrixData(hmiMatrix, row, col - 1), // left
-                    getMatrixData(hmiMatrix, row - 1, col), // above
-                    getMatrixData(hmiMatrix, row - 1, col - 1) // diagonal
+            boolean leftDiagonalTopAllLower = currentEntry > max(getMatrixData(hmiMatrix, cols, row, col - 1), // left
+                    getMatrixData(hmiMatrix, cols, row - 1, col), // above
+                    getMatrixData(hmiMatrix, cols, row - 1, col - 1) // diagonal
             );
             while (row >= 0 && col >= 0 && leftDiagonalTopAllLower && currentEntry == currentExpected) {
                 // skip through one subsequence of equal lines
@@ -92,85 +149,26 @@ public class HuntMcIlroy {
                 currentExpected--;
             }
             result.add(new MatchingLineSequence(row + 1, col + 1, oldRow - row));
-            int temp = getMatrixData(hmiMatrix, row, col);
-            while (getMatrixData(hmiMatrix, row - 1, col) == temp) row--; // move up as far as possible
-            while (getMatrixData(hmiMatrix, row, col - 1) == temp) col--; // move left as far as possible
+            int temp = getMatrixData(hmiMatrix, cols, row, col);
+            while (getMatrixData(hmiMatrix, cols, row - 1, col) == temp) row--; // move up as far as possible
+            while (getMatrixData(hmiMatrix, cols, row, col - 1) == temp) col--; // move left as far as possible
         }
         return result;
     }
 
-    private record MatchingLineSequence(int startLeft, int startRight, int length) {
+    /**
+     * Sequence of equal lines that starts at startLeft in the left and at startRight in the right file
+     */
+    public record MatchingLineSequence(int startLeft, int startRight, int length) {
     }
 
-    private static int getMatrixData(int[][] hmiMatrix, int row, int col) {
+    private static int getMatrixData(int[] hmiMatrix, int cols, int row, int col) {
         if (row < -1 || col < -1) return Integer.MIN_VALUE;
         if (row == -1 || col == -1) return 0;
-        return hmiMatrix[row][col];
+        return hmiMatrix[row * cols + col];
     }
 
     private static int max(int... numbers) {
         return Arrays.stream(numbers).reduce(Math::max).orElseThrow();
     }
-
-
-    /**
-     * Compare two strings and return a string with differences marked with '!' and matches marked with 'O'
-     * Using the Longest Common Subsequence algorithm / Hunt-McIlroy algorithm
-     *
-     * @param longerString  First string to compare
-     * @param shorterString Second string to compare
-     */
-    public static DoubleSidedDiffString compareString(String longerString, String shorterString) {
-        int[][] hmiMatrix = HuntMcIlroy.huntMcIlroyMatrixString(longerString, shorterString);
-
-        int row = hmiMatrix.length - 1;
-        int col = hmiMatrix[0].length - 1;
-        StringBuilder longerDiffString = new StringBuilder(longerString.length());
-        StringBuilder shorterDiffString = new StringBuilder(shorterString.length());
-
-
-        while (row >= 0 && col >= 0) {
-            if (row > 0 && col > 0 && longerString.charAt(row - 1) == shorterString.charAt(col - 1)) {
-                longerDiffString.insert(0, "O");
-                shorterDiffString.insert(0, "O");
-                row--;
-                col--;
-            } else {
-                while (row > 0 && hmiMatrix[row - 1][col] == hmiMatrix[row][col]) {
-                    row--;
-                    longerDiffString.insert(0, "!");
-                }
-                while (col > 0 && hmiMatrix[row][col-1] == hmiMatrix[row][col]) {
-                    col--;
-                    shorterDiffString.insert(0, "!");
-                }
-            }
-            if(row == 0 && col == 0) break;
-        }
-        return new DoubleSidedDiffString(longerDiffString.toString(), shorterDiffString.toString());
-    }
-
-    public record DoubleSidedDiffString(String longerDiffString, String shorterDiffString) {
-    }
-
-    /**
-     * Build the Longest Common Subsequence matrix for two strings
-     *
-     * @param s1 First string to compare
-     * @param s2 Second string to compare
-     * @return Longest Common Subsequence matrix
-     */
-    private static int[][] huntMcIlroyMatrixString(String s1, String s2) {
-        int[][] hmiMatrix = new int[s1.length() + 1][s2.length() + 1];
-        for (int row = 1; row <= hmiMatrix.length - 1; row++) {
-            for (int col = 1; col <= hmiMatrix[0].length - 1; col++) {
-                if (s1.charAt(row - 1) == s2.charAt(col - 1)) {
-                    hmiMatrix[row][col] = hmiMatrix[row - 1][col - 1] + 1;
-                } else {
-                    hmiMatrix[row][col] = Math.max(hmiMatrix[row - 1][col], hmiMatrix[row][col - 1]);
-                }
-            }
-        }
-        return hmiMatrix;
-    }
 }
@@ -0,0 +1,89 @@
+package algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Line diff following Hunt & Szymanski ("A Fast Algorithm for Computing Longest Common Subsequences", 1977),
+ * the candidate list approach that the original diff by Hunt & McIlroy is built on
+ * Only the r pairs of equal lines are visited, each with a binary search in the threshold array,
+ * so the runtime is O((r + n) log n), which is very fast for files with few repeated lines
+ *
+ * @see HuntMcIlroy
+ */
+public class HuntSzymanski implements DiffEngine {
+
+    /**
+     * A pair of equal lines that ends a common subsequence of length k+1, linked to the pair before it
+     */
+    private record Candidate(int left, int right, Candidate previous) {
+    }
+
+    @Override
+    public List<HuntMcIlroy.MatchingLineSequence> getMatchingLineSequences(int[] left, int[] right, int distinct) {
+        return getMatchingLineSequences(left, right, distinct, DiffBudget.unlimited());
+    }
+
+    /**
+     * With a cost cap (or after the time limit) the number r of equal line pairs is counted first, if visiting all of them would cost
+     * more than a budgeted search of the edit graph, the linear-space Myers (within the budget) is used instead
+     */
+    @Override
+    public List<HuntMcIlroy.MatchingLineSequence> getMatchingLineSequences(int[] left, int[] right, int distinct, DiffBudget budget) {
+        if (budget.isLimited() && left.length > 0 && right.length > 0) {
+            long[] leftCount = new long[distinct];
+            for (int token : left) leftCount[token]++;
+            long pairs = 0;
+            for (int token : right) pairs += leftCount[token];
+            if (pairs > (long) budget.costLimit(left.length, right.length) * (left.length + right.length)) {
+                List<HuntMcIlroy.MatchingLineSequence> result = new ArrayList<>();
+                MyersLinearSpace.addMatchingLineSequences(left, 0, left.length, right, 0, right.length, result, budget);
+                return result;
+            }
+        }
+
+        // index: right line -> ascending positions of this line in the right file
+        // the tokens already come from a hash table, so the index is a bucket array per token (counting sort)
+        int[] bucketStart = new int[distinct + 1];
+        for (int token : right) bucketStart[token + 1]++;
+        for (int token = 0; token < distinct; token++) bucketStart[token + 1] += bucketStart[token];
+        int[] occurrences = new int[right.length];
+        int[] fill = bucketStart.clone();
+        for (int j = 0; j < right.length; j++) occurrences[fill[right[j]]++] = j;
+
+        int[] thresholds = new int[Math.min(left.length, right.length)]; // smallest right index that ends a subsequence of length k+1
+        Candidate[] links = new Candidate[thresholds.length];
+        int length = 0;
+
+        for (int i = 0; i < left.length; i++) {
+            int token = left[i];
+            for (int index = bucketStart[token + 1] - 1; index >= bucketStart[token]; index--) { // descending, so one left line never extends itself
+                int j = occurrences[index];
+                int k = Arrays.binarySearch(thresholds, 0, length, j);
+                if (k >= 0) continue; // a subsequence of this length already ends at j
+                k = -k - 1; // insertion point = first threshold greater than j
+                thresholds[k] = j;
+                links[k] = new Candidate(i, j, k > 0 ? links[k - 1] : null);
+                if (k == length) length++;
+            }
+        }
+
+        // walk back the candidate chain of the longest subsequence and merge neighbouring pairs into sequences
+        List<HuntMcIlroy.MatchingLineSequence> result = new ArrayList<>();
+        Candidate candidate = length > 0 ? links[length - 1] : null;
+        while (candidate != null) {
+            int sequenceLength = 1;
+            Candidate first = candidate;
+            while (first.previous() != null && first.previous().left() == first.left() - 1 && first.previous().right() == first.right() - 1) {
+                first = first.previous();
+                sequenceLength++;
+            }
+            result.add(new HuntMcIlroy.MatchingLineSequence(first.left(), first.right(), sequenceLength));
+            candidate = first.previous();
+        }
+        Collections.reverse(result); // chain was walked from the end
+        return result;
+    }
+}
@@ -0,0 +1,184 @@
+package algorithms;
+
+import java.util.Arrays;
+
+/**
+ * Character diff of one pair of changed lines in a single pass
+ * The similarity (Levenshtein distance, Myers 1999) and the alignment (LCS, Allison & Dix 1986 / Hyyrö 2004) are
+ * computed together: both bit-parallel algorithms walk the characters of the shorter line and share the same match masks
+ * over the longer line, so every mask word is loaded once for both
+ * The LCS rows are all kept (n·⌈m/64⌉ longs) for the traceback, the Levenshtein column only as its vertical deltas
+ * The scratch arrays are kept per thread and only grow, comparing many lines allocates almost nothing
+ *
+ * @see FileUtils
+ */
+public final class InlineDiff {
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private InlineDiff() {
+    }
+
+    /**
+     * Similarity and highlight ranges of two lines
+     * The ranges are flat pairs {start, end, start, end, ...} of character indices (end exclusive) that are not part of the LCS
+     *
+     * @param similar     true if the distance is at most the accepted maximum, only then ranges are computed
+     * @param distance    Levenshtein distance, or maxDistance + 1 if it is larger than the accepted maximum
+     * @param leftRanges  Changed ranges of the left line, empty if not similar
+     * @param rightRanges Changed ranges of the right line, empty if not similar
+     */
+    public record Result(boolean similar, int distance, int[] leftRanges, int[] rightRanges) {
+    }
+
+    private static final int[] NO_RANGES = new int[0];
+
+    /**
+     * Compare two lines character by character
+     *
+     * @param left        Left line
+     * @param right       Right line
+     * @param maxDistance Largest Levenshtein distance for which the lines count as similar
+     * @return Similarity and, for similar lines, the changed ranges of both lines
+     */
+    public static Result compare(String left, String right, int maxDistance) {
+        boolean leftIsLonger = left.length() > right.length();
+        String longer = leftIsLonger ? left : right; // bit vectors run over the longer line
+        String shorter = leftIsLonger ? right : left; // one step per character
+        int m = longer.length();
+        int n = shorter.length();
+        if (maxDistance < 0 || m - n > maxDistance) return new Result(false, Math.max(0, maxDistance) + 1, NO_RANGES, NO_RANGES);
+        if (m == 0) return new Result(true, 0, NO_RANGES, NO_RANGES);
+
+        Scratch scratch = SCRATCH.get();
+        CharBitMasks peq = scratch.masks(longer);
+        int words = peq.words;
+        long[] lcsRows = scratch.lcsRows((n + 1) * words); // V_i of the LCS starts at i * words
+        long[] pv = scratch.pv(words);
+        long[] mv = scratch.mv(words);
+        for (int w = 0; w < words; w++) {
+            lcsRows[w] = -1L;
+            pv[w] = -1L;
+            mv[w] = 0;
+        }
+        long last = 1L << ((m - 1) & 63); // bottom row of the Levenshtein column
+        int distance = m;
+
+        for (int i = 0; i < n; i++) {
+            int slot = peq.slot(shorter.charAt(i));
+            int previous = i * words;
+            int current = previous + words;
+            long carry = 0;
+            int horizontalIn = 1;
+            for (int w = 0; w < words; w++) {
+                long eq = peq.get(slot, w);
+
+                // LCS row (Allison-Dix / Hyyrö)
+                long v = lcsRows[previous + w];
+                long u = v & eq;
+                long sum = v + u + carry;
+                carry = Long.compareUnsigned(sum, v) < 0 || (carry != 0 && sum == v) ? 1 : 0;
+                lcsRows[current + w] = sum | (v - u);
+
+                // Levenshtein column (Myers), blocked
+                long xv = eq | mv[w];
+                if (horizontalIn < 0) eq |= 1;
+                long xh = (((eq & pv[w]) + pv[w]) ^ pv[w]) | eq;
+                long ph = mv[w] | ~(xh | pv[w]);
+                long mh = pv[w] & xh;
+                long outBit = w == words - 1 ? last : 1L << 63;
+                int horizontalOut = (ph & outBit) != 0 ? 1 : (mh & outBit) != 0 ? -1 : 0;
+                ph <<= 1;
+                mh <<= 1;
+                if (horizontalIn < 0) mh |= 1;
+                else if (horizontalIn > 0) ph |= 1;
+                pv[w] = mh | ~(xv | ph);
+                mv[w] = ph & xv;
+                horizontalIn = horizontalOut;
+            }
+            distance += horizontalIn;
+            // each remaining character can lower the distance by at most 1
+            if (distance - (n - i - 1) > maxDistance) return new Result(false, maxDistance + 1, NO_RANGES, NO_RANGES);
+        }
+        if (distance > maxDistance) return new Result(false, maxDistance + 1, NO_RANGES, NO_RANGES);
+
+        // traceback of the LCS, unmatched characters of the longer line are taken first
+        boolean[] longerMatched = scratch.longerMatched(m);
+        boolean[] shorterMatched = scratch.shorterMatched(n);
+        int i = n;
+        int j = m;
+        while (i > 0 && j > 0) {
+            if (longer.charAt(j - 1) == shorter.charAt(i - 1)) {
+                longerMatched[--j] = true;
+                shorterMatched[--i] = true;
+            } else if ((lcsRows[i * words + ((j - 1) >>> 6)] & (1L << (j - 1))) != 0) {
+                j--;
+            } else {
+                i--;
+            }
+        }
+        int[] longerRanges = toRanges(longerMatched, m);
+        int[] shorterRanges = toRanges(shorterMatched, n);
+        return leftIsLonger ? new Result(true, distance, longerRanges, shorterRanges) : new Result(true, distance, shorterRanges, longerRanges);
+    }
+
+    /**
+     * Collect the runs of unmatched characters and clear the flags for the next call
+     */
+    private static int[] toRanges(boolean[] matched, int length) {
+        int count = 0;
+        for (int i = 0; i < length; i++) if (!matched[i] && (i == 0 || matched[i - 1])) count++;
+        int[] ranges = new int[2 * count];
+        int range = 0;
+        for (int i = 0; i < length; i++) {
+            if (matched[i]) continue;
+            if (i == 0 || matched[i - 1]) ranges[2 * range] = i; // start of a run
+            if (i == length - 1 || matched[i + 1]) ranges[2 * range++ + 1] = i + 1; // end of a run
+        }
+        Arrays.fill(matched, 0, length, false);
+        return ranges;
+    }
+
+    /**
+     * Arrays of one thread, reused by all calls on this thread
+     */
+    private static final class Scratch {
+        private CharBitMasks masks;
+        private long[] lcsRows = new long[0];
+        private long[] pv = new long[0];
+        private long[] mv = new long[0];
+        private boolean[] longerMatched = new boolean[0];
+        private boolean[] shorterMatched = new boolean[0];
+
+        private CharBitMasks masks(String text) {
+            if (masks == null) masks = new CharBitMasks(text);
+            else masks.reset(text);
+            return masks;
+        }
+
+        private long[] lcsRows(int size) {
+            if (lcsRows.length < size) lcsRows = new long[size];
+            return lcsRows;
+        }
+
+        private long[] pv(int size) {
+            if (pv.length < size) pv = new long[size];
+            return pv;
+        }
+
+        private long[] mv(int size) {
+            if (mv.length < size) mv = new long[size];
+            return mv;
+        }
+
+        private boolean[] longerMatched(int size) {
+            if (longerMatched.length < size) longerMatched = new boolean[size];
+            return longerMatched;
+        }
+
+        private boolean[] shorterMatched(int size) {
+            if (shorterMatched.length < size) shorterMatched = new boolean[size];
+            return shorterMatched;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package algorithms;
+
+import utils.Side;
+
+import java.util.Arrays;
+
+/**
+ * Changed character ranges of a compared file pair, used to highlight single characters inside changed lines
+ * Every run is (row, side, startColumn, endColumn) with the end exclusive; the columns refer to the displayed line
+ * (including the line number prefix) and the rows start at 1 like the displayed line numbers
+ * The runs are stored in primitive arrays sorted by row, the runs of row r are [firstRun(r), endRun(r)) (compressed rows)
+ *
+ * @see FileUtils.LineResult
+ * @see InlineDiff
+ */
+public final class LineHighlights {
+
+    /**
+     * No highlighted characters at all
+     */
+    public static final LineHighlights EMPTY = new Builder().build();
+    private static final Side[] SIDES = Side.values();
+
+    private final int[] rowStart; // first run of every row, rowStart[rows] = number of runs
+    private final byte[] sides; // Side ordinal per run
+    private final int[] startColumns;
+    private final int[] endColumns;
+
+    private LineHighlights(int[] rowStart, byte[] sides, int[] startColumns, int[] endColumns) {
+        this.rowStart = rowStart;
+        this.sides = sides;
+        this.startColumns = startColumns;
+        this.endColumns = endColumns;
+    }
+
+    /**
+     * @return Number of runs
+     */
+    public int size() {
+        return sides.length;
+    }
+
+    public boolean isEmpty() {
+        return sides.length == 0;
+    }
+
+    /**
+     * @param row Row (starting at 1)
+     * @return Index of the first run in this row
+     */
+    public int firstRun(int row) {
+        return rowStart[Math.max(0, Math.min(row, rowStart.length - 1))];
+    }
+
+    /**
+     * @param row Row (starting at 1)
+     * @return Index after the last run in this row, equal to {@link #firstRun(int)} if the row has no runs
+     */
+    public int endRun(int row) {
+        return rowStart[Math.max(0, Math.min(row + 1, rowStart.length - 1))];
+    }
+
+    public Side side(int run) {
+        return SIDES[sides[run]];
+    }
+
+    public int startColumn(int run) {
+        return startColumns[run];
+    }
+
+    public int endColumn(int run) {
+        return endColumns[run];
+    }
+
+    /**
+     * Collects runs row by row, rows have to be added in ascending order
+     */
+    public static final class Builder {
+        private int[] rowOfRun = new int[16];
+        private byte[] sides = new byte[16];
+        private int[] startColumns = new int[16];
+        private int[] endColumns = new int[16];
+        private int size;
+
+        /**
+         * Add one run, empty runs are ignored
+         *
+         * @param row         Row (starting at 1), not smaller than the row of the last run
+         * @param side        Side of the run
+         * @param startColumn First highlighted column
+         * @param endColumn   Column after the last highlighted column
+         * @return this Builder
+         */
+        public Builder add(int row, Side side, int startColumn, int endColumn) {
+            if (startColumn >= endColumn) return this;
+            if (size > 0 && row < rowOfRun[size - 1]) throw new IllegalArgumentException("rows must be added in ascending order");
+            if (size == sides.length) {
+                rowOfRun = Arrays.copyOf(rowOfRun, 2 * size);
+                sides = Arrays.copyOf(sides, 2 * size);
+                startColumns = Arrays.copyOf(startColumns, 2 * size);
+                endColumns = Arrays.copyOf(endColumns, 2 * size);
+            }
+            rowOfRun[size] = row;
+            sides[size] = (byte) side.ordinal();
+            startColumns[size] = startColumn;
+            endColumns[size] = endColumn;
+            size++;
+            return this;
+        }
+
+        public LineHighlights build() {
+            int rows = size == 0 ? 0 : rowOfRun[size - 1] + 1;
+            int[] rowStart = new int[rows + 1];
+            for (int run = 0; run < size; run++) rowStart[rowOfRun[run] + 1]++; // count per row ...
+            for (int row = 0; row < rows; row++) rowStart[row + 1] += rowStart[row]; // ... and sum up
+            return new LineHighlights(rowStart, Arrays.copyOf(sides, size), Arrays.copyOf(startColumns, size), Arrays.copyOf(endColumns, size));
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package algorithms;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns the lines of two files into int tokens before a diff runs
+ * Every line is normalized once (leading whitespaces are ignored) and interned into an ID through a hash table
+ * shared by both files, so equal lines get the same ID and the diff engines only have to compare ints
+ * Lines of {@link MappedLines} are hashed and compared on their bytes, they are never decoded to Strings here
+ *
+ * @see HuntMcIlroy
+ * @see Myers
+ */
+public class LineTokenizer {
+
+    private static final int BATCH = 4096; // lines of MappedLines per acquire
+
+    /**
+     * Lines of both files as token IDs
+     *
+     * @param left     IDs of the left lines
+     * @param right    IDs of the right lines
+     * @param distinct Number of different IDs, all IDs are in the range [0, distinct)
+     */
+    public record TokenizedLines(int[] left, int[] right, int distinct) {
+    }
+
+    /**
+     * Tokenize the lines of two files with one shared table
+     *
+     * @param leftLines  Lines of the left file
+     * @param rightLines Lines of the right file
+     * @return Token IDs of both files
+     */
+    public static TokenizedLines tokenize(List<String> leftLines, List<String> rightLines) {
+        if (leftLines instanceof MappedLines && rightLines instanceof MappedLines) {
+            return tokenize((MappedLines) leftLines, (MappedLines) rightLines);
+        }
+        Map<String, Integer> ids = new HashMap<>();
+        int[] left = tokenize(leftLines, ids);
+        int[] right = tokenize(rightLines, ids);
+        return new TokenizedLines(left, right, ids.size());
+    }
+
+    private static int[] tokenize(List<String> lines, Map<String, Integer> ids) {
+        int[] tokens = new int[lines.size()];
+        int i = 0;
+        for (String line : lines) {
+            String normalized = line.stripLeading(); // ignore leading whitespaces
+            Integer id = ids.get(normalized);
+            if (id == null) {
+                id = ids.size();
+                ids.put(normalized, id);
+            }
+            tokens[i++] = id;
+        }
+        return tokens;
+    }
+
+    /**
+     * Same IDs as for the decoded lines, interned with an open addressing table over the normalized bytes
+     */
+    private static TokenizedLines tokenize(MappedLines leftLines, MappedLines rightLines) {
+        ByteTable ids = new ByteTable();
+        int[] left = new int[leftLines.size()];
+        internAll(leftLines, left, ids, rightLines);
+        int[] right = new int[rightLines.size()];
+        internAll(rightLines, right, ids, leftLines);
+        return new TokenizedLines(left, right, ids.size);
+    }
+
+    /**
+     * Intern all lines of a file, both files are acquired for one batch of lines at a time (a close waits for one batch)
+     */
+    private static void internAll(MappedLines file, int[] tokens, ByteTable ids, MappedLines otherFile) {
+        for (int batchStart = 0; batchStart < tokens.length; batchStart += BATCH) {
+            int batchEnd = Math.min(tokens.length, batchStart + BATCH);
+            file.acquire();
+            try {
+                otherFile.acquire(); // the table compares with the first lines of both files
+                try {
+                    for (int i = batchStart; i < batchEnd; i++) tokens[i] = ids.intern(file, i);
+                } finally {
+                    otherFile.release();
+                }
+            } finally {
+                file.release();
+            }
+        }
+    }
+
+    /**
+     * Hash table from line bytes to IDs, every ID remembers its first line to compare the bytes on collisions
+     * A slot holds the hash and the ID together, so probing touches the lines only if the hashes are equal
+     */
+    private static final class ByteTable {
+        private long[] slots = new long[1024]; // hash << 32 | ID + 1, 0 if empty
+        private MappedLines[] files = new MappedLines[512]; // per ID, file of the first line
+        private int[] lines = new int[512]; // per ID, index of the first line
+        private int size;
+
+        private int intern(MappedLines file, int line) {
+            int hash = file.normalizedHash(line);
+            int mask = slots.length - 1;
+            int slot = hash & mask;
+            for (long entry = slots[slot]; entry != 0; entry = slots[slot = (slot + 1) & mask]) {
+                int id = (int) entry - 1;
+                if ((int) (entry >>> 32) == hash && files[id].equalsNormalized(lines[id], file, line)) return id;
+            }
+            if (size == lines.length) {
+                files = Arrays.copyOf(files, 2 * size);
+                lines = Arrays.copyOf(lines, 2 * size);
+            }
+            files[size] = file;
+            lines[size] = line;
+            slots[slot] = (long) hash << 32 | (size + 1);
+            size++;
+            if (2 * size > slots.length) rehash();
+            return size - 1;
+        }
+
+        private void rehash() {
+            long[] old = slots;
+            slots = new long[2 * old.length];
+            int mask = slots.length - 1;
+            for (long entry : old) {
+                if (entry == 0) continue;
+                int slot = (int) (entry >>> 32) & mask;
+                while (slots[slot] != 0) slot = (slot + 1) & mask;
+                slots[slot] = entry;
+            }
+        }
+    }
+}
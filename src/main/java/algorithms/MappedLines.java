@@ -0,0 +1,433 @@
+package algorithms;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lines of a file read through a memory mapping instead of {@link java.nio.file.Files#readAllLines}
+ * The file is mapped in chunks of {@link #CHUNK_SIZE} bytes (a single mapping is limited to 2 GB) and scanned once for
+ * the line breaks, the index holds one long per line; a line is only decoded to a String when it is requested
+ * (display, inline diff), the tokenizer hashes and compares the bytes directly
+ * Line breaks are \n, \r and \r\n like readAllLines, the bytes are decoded as UTF-8 (malformed input is replaced by
+ * U+FFFD); well-formed lines are hashed and compared on their bytes, lines with malformed bytes on their decoded form,
+ * so two lines get the same token exactly if they look the same
+ * Off-heap (see {@link DiffSession}) the index and the line hashes are kept in direct buffers outside of the heap, so
+ * the garbage collector never scans or copies them
+ * {@link #close()} unmaps the file and frees the direct buffers right away instead of waiting for the garbage collector;
+ * reads that are running at that moment finish first, later reads fail with an IllegalStateException
+ *
+ * @see LineTokenizer
+ */
+public final class MappedLines extends AbstractList<String> implements RandomAccess {
+
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+    private static final long LF_BYTES = 0x0A0A0A0A0A0A0A0AL;
+    private static final long CR_BYTES = 0x0D0D0D0D0D0D0D0DL;
+    private static final long LOW_BITS = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final Object UNSAFE; // sun.misc.Unsafe, frees direct and mapped buffers; null if not accessible
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) { // buffers are then freed by the garbage collector
+            unsafe = null;
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private ByteBuffer[] chunks; // null after close
+    private final long length;
+    private LongBuffer lineStarts; // lineStarts[size] = end of the last line including its line break
+    private IntBuffer hashes; // normalized hash per line if precomputed (off-heap), otherwise null
+    private ByteBuffer indexBuffer; // direct buffers behind lineStarts and hashes, null on the heap
+    private ByteBuffer hashBuffer;
+    private final int size;
+    private volatile boolean closed;
+    private final AtomicInteger readers = new AtomicInteger(); // reads in progress, close waits for them
+
+    private MappedLines(ByteBuffer[] chunks, long length, LongBuffer lineStarts, int size) {
+        this.chunks = chunks;
+        this.length = length;
+        this.lineStarts = lineStarts;
+        this.size = size;
+    }
+
+    /**
+     * Map a file and index its lines on the heap
+     *
+     * @param file File to read
+     * @return Lines of the file, the mapping stays valid as long as the list is referenced
+     * @throws IOException if the file can not be mapped or has more lines than a list can hold
+     */
+    public static MappedLines map(File file) throws IOException {
+        return map(file, false);
+    }
+
+    /**
+     * Map a file and index its lines
+     *
+     * @param file    File to read
+     * @param offHeap true to keep the index and the line hashes in direct buffers
+     * @return Lines of the file
+     * @throws IOException if the file can not be mapped or has more lines than a list can hold
+     */
+    static MappedLines map(File file, boolean offHeap) throws IOException {
+        ByteBuffer[] chunks;
+        long length;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            length = channel.size();
+            chunks = new ByteBuffer[(int) ((length + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+            for (int c = 0; c < chunks.length; c++) {
+                long position = (long) c << CHUNK_BITS;
+                chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHUNK_SIZE, length - position));
+            }
+        } // the mappings stay valid after the channel is closed
+
+        long lines = scan(chunks, length, null); // count first, so the index is allocated once with the exact size
+        if (lines >= Integer.MAX_VALUE) throw new IOException("Zu viele Zeilen: " + file);
+        offHeap &= (lines + 1) * Long.BYTES <= Integer.MAX_VALUE; // a direct buffer holds at most 2 GB
+        ByteBuffer indexBuffer = offHeap ? ByteBuffer.allocateDirect((int) (lines + 1) * Long.BYTES) : null;
+        LongBuffer lineStarts = offHeap ? indexBuffer.asLongBuffer() : LongBuffer.allocate((int) lines + 1);
+        scan(chunks, length, lineStarts);
+        lineStarts.put((int) lines, length);
+        MappedLines mapped = new MappedLines(chunks, length, lineStarts, (int) lines);
+        if (offHeap) {
+            ByteBuffer hashBuffer = ByteBuffer.allocateDirect((int) lines * Integer.BYTES);
+            IntBuffer hashes = hashBuffer.asIntBuffer();
+            for (int line = 0; line < lines; line++) hashes.put(line, mapped.computeHash(line));
+            mapped.indexBuffer = indexBuffer;
+            mapped.hashBuffer = hashBuffer;
+            mapped.hashes = hashes;
+        }
+        return mapped;
+    }
+
+    /**
+     * Find the line starts
+     *
+     * @param lineStarts Receives the start of every line, null to only count them
+     * @return Number of lines
+     */
+    private static long scan(ByteBuffer[] chunks, long length, LongBuffer lineStarts) {
+        long lines = 0;
+        if (length > 0) {
+            if (lineStarts != null) lineStarts.put(0, 0);
+            lines++;
+        }
+        long position = 0;
+        while (position < length) {
+            ByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)];
+            int offset = (int) (position & (CHUNK_SIZE - 1));
+            if (offset + Long.BYTES <= chunk.limit()) { // 8 bytes at once, most words contain no line break (SWAR)
+                long word = chunk.getLong(offset);
+                if (!hasByte(word, LF_BYTES) && !hasByte(word, CR_BYTES)) {
+                    position += Long.BYTES;
+                    continue;
+                }
+            }
+            byte b = chunk.get(offset);
+            position++;
+            if (b != '\n' && b != '\r') continue;
+            if (b == '\r' && position < length && byteAt(chunks, position) == '\n') position++; // \r\n is one line break
+            if (position < length) { // a line break at the end of the file starts no new line
+                if (lineStarts != null) lineStarts.put((int) lines, position);
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Unmap the file and free the index, the list can not be read afterwards
+     * Waits for the reads that are running (one line each), closing twice does nothing
+     */
+    void close() {
+        closed = true;
+        while (readers.get() != 0) Thread.onSpinWait(); // a read that passed the check in acquire finishes first
+        synchronized (this) {
+            if (chunks == null) return;
+            for (ByteBuffer chunk : chunks) free(chunk);
+            free(indexBuffer);
+            free(hashBuffer);
+            chunks = null;
+            lineStarts = null;
+            hashes = null;
+            indexBuffer = null;
+            hashBuffer = null;
+        }
+    }
+
+    /**
+     * Release the native memory of a direct or mapped buffer now, the buffer must not be used afterwards
+     */
+    private static void free(ByteBuffer buffer) {
+        if (buffer == null || INVOKE_CLEANER == null) return;
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) { // left to the garbage collector
+        }
+    }
+
+    /**
+     * Register a read, every acquire is followed by one {@link #release()}
+     * {@link #normalizedHash} and {@link #equalsNormalized} may only be called in between; keep it short, a close waits for it
+     *
+     * @throws IllegalStateException if the file is closed
+     */
+    void acquire() {
+        readers.incrementAndGet();
+        if (closed) {
+            readers.decrementAndGet();
+            throw new IllegalStateException("Die Diff-Sitzung ist bereits geschlossen");
+        }
+    }
+
+    void release() {
+        readers.decrementAndGet();
+    }
+
+    /**
+     * @return true if one of the 8 bytes of word equals the byte repeated in pattern
+     */
+    private static boolean hasByte(long word, long pattern) {
+        long x = word ^ pattern; // matching bytes become 0
+        return ((x - LOW_BITS) & ~x & HIGH_BITS) != 0;
+    }
+
+    private static byte byteAt(ByteBuffer[] chunks, long position) {
+        return chunks[(int) (position >>> CHUNK_BITS)].get((int) (position & (CHUNK_SIZE - 1)));
+    }
+
+    @Override
+    public String get(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+        acquire();
+        try {
+            return new String(bytes(lineStarts.get(index), end(index)), StandardCharsets.UTF_8);
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Hash of the line without its leading whitespaces, equal for all lines with {@link #equalsNormalized}
+     * Only between {@link #acquire()} and {@link #release()}
+     *
+     * @param index Line
+     * @return Hash of the normalized bytes
+     */
+    int normalizedHash(int index) {
+        IntBuffer precomputed = hashes;
+        return precomputed != null ? precomputed.get(index) : computeHash(index);
+    }
+
+    private int computeHash(int index) {
+        long end = end(index);
+        long start = normalizedStart(index, end);
+        if (!isWellFormed(start, end)) { // hash the line as it is displayed
+            return hash(decodedNormalized(index).getBytes(StandardCharsets.UTF_8));
+        }
+        long hash = end - start;
+        long position = start;
+        if ((start >>> CHUNK_BITS) == ((end - 1) >>> CHUNK_BITS)) { // whole line in one chunk (almost always), 8 bytes at once
+            ByteBuffer chunk = chunks[(int) (start >>> CHUNK_BITS)];
+            int offset = (int) (start & (CHUNK_SIZE - 1));
+            int limit = offset + (int) (end - start);
+            for (; offset + Long.BYTES <= limit; offset += Long.BYTES) hash = (hash ^ chunk.getLong(offset)) * 0x9E3779B97F4A7C15L;
+            position = end - (limit - offset);
+        } else { // the same words, assembled across the border of two chunks, so the hash does not depend on the mapping
+            for (; position + Long.BYTES <= end; position += Long.BYTES) hash = (hash ^ wordAt(position)) * 0x9E3779B97F4A7C15L;
+        }
+        for (; position < end; position++) hash = (hash ^ byteAt(chunks, position)) * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * Same hash as {@link #computeHash(int)} for bytes that are not mapped
+     */
+    private static int hash(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes); // big-endian like the mapping
+        long hash = bytes.length;
+        int offset = 0;
+        for (; offset + Long.BYTES <= bytes.length; offset += Long.BYTES) hash = (hash ^ buffer.getLong(offset)) * 0x9E3779B97F4A7C15L;
+        for (; offset < bytes.length; offset++) hash = (hash ^ bytes[offset]) * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * 8 bytes in the byte order of {@link ByteBuffer#getLong(int)} (big-endian), also across the border of two chunks
+     */
+    private long wordAt(long position) {
+        ByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)];
+        int offset = (int) (position & (CHUNK_SIZE - 1));
+        if (offset + Long.BYTES <= chunk.limit()) return chunk.getLong(offset);
+        long word = 0;
+        for (int k = 0; k < Long.BYTES; k++) word = (word << 8) | (byteAt(chunks, position + k) & 0xFF);
+        return word;
+    }
+
+    /**
+     * Compare two lines without their leading whitespaces, like {@link String#stripLeading()} on the decoded lines
+     * Only between {@link #acquire()} and {@link #release()} of both files
+     *
+     * @param index      Line of this file
+     * @param other      Lines of the same or another file
+     * @param otherIndex Line of the other file
+     * @return true if the normalized lines are equal
+     */
+    boolean equalsNormalized(int index, MappedLines other, int otherIndex) {
+        long end = end(index);
+        long otherEnd = other.end(otherIndex);
+        long start = normalizedStart(index, end);
+        long otherStart = other.normalizedStart(otherIndex, otherEnd);
+        if (end - start == otherEnd - otherStart && equalBytes(start, other, otherStart, end - start)) return true; // equal bytes decode equally
+        if (isWellFormed(start, end) && other.isWellFormed(otherStart, otherEnd)) return false; // well-formed UTF-8 decodes one to one
+        return decodedNormalized(index).equals(other.decodedNormalized(otherIndex)); // malformed bytes, compare as displayed
+    }
+
+    private String decodedNormalized(int index) {
+        return new String(bytes(lineStarts.get(index), end(index)), StandardCharsets.UTF_8).stripLeading();
+    }
+
+    private boolean equalBytes(long start, MappedLines other, long otherStart, long count) {
+        if (count == 0) return true;
+        long end = start + count;
+        long otherEnd = otherStart + count;
+        if ((start >>> CHUNK_BITS) == ((end - 1) >>> CHUNK_BITS) && (otherStart >>> CHUNK_BITS) == ((otherEnd - 1) >>> CHUNK_BITS)) {
+            ByteBuffer line = chunks[(int) (start >>> CHUNK_BITS)].slice((int) (start & (CHUNK_SIZE - 1)), (int) count);
+            ByteBuffer otherLine = other.chunks[(int) (otherStart >>> CHUNK_BITS)].slice((int) (otherStart & (CHUNK_SIZE - 1)), (int) count);
+            return line.mismatch(otherLine) < 0; // vectorized comparison
+        }
+        for (long k = 0; k < count; k++) if (byteAt(chunks, start + k) != byteAt(other.chunks, otherStart + k)) return false;
+        return true;
+    }
+
+    /**
+     * @return true if the bytes are well-formed UTF-8, ASCII is skipped 8 bytes at once
+     */
+    private boolean isWellFormed(long start, long end) {
+        long position = start;
+        while (position < end) {
+            ByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)];
+            int offset = (int) (position & (CHUNK_SIZE - 1));
+            if (position + Long.BYTES <= end && offset + Long.BYTES <= chunk.limit() && (chunk.getLong(offset) & HIGH_BITS) == 0) {
+                position += Long.BYTES;
+                continue;
+            }
+            if (chunk.get(offset) >= 0) { // ASCII
+                position++;
+                continue;
+            }
+            int bytes = sequenceLength(position, end);
+            if (bytes == 0) return false;
+            position += bytes;
+        }
+        return true;
+    }
+
+    /**
+     * Length of the well-formed UTF-8 sequence at position (Unicode table 3-7, the same rules as the decoder of String)
+     *
+     * @return 1 - 4, 0 if the sequence is malformed (no overlong forms, surrogates or code points above U+10FFFF)
+     */
+    private int sequenceLength(long position, long end) {
+        int b = byteAt(chunks, position) & 0xFF;
+        if (b < 0x80) return 1;
+        int bytes;
+        int low = 0x80; // range of the second byte
+        int high = 0xBF;
+        if (b >= 0xC2 && b <= 0xDF) {
+            bytes = 2;
+        } else if (b >= 0xE0 && b <= 0xEF) {
+            bytes = 3;
+            if (b == 0xE0) low = 0xA0;
+            else if (b == 0xED) high = 0x9F;
+        } else if (b >= 0xF0 && b <= 0xF4) {
+            bytes = 4;
+            if (b == 0xF0) low = 0x90;
+            else if (b == 0xF4) high = 0x8F;
+        } else {
+            return 0;
+        }
+        if (position + bytes > end) return 0;
+        int second = byteAt(chunks, position + 1) & 0xFF;
+        if (second < low || second > high) return 0;
+        for (int k = 2; k < bytes; k++) if ((byteAt(chunks, position + k) & 0xC0) != 0x80) return 0;
+        return bytes;
+    }
+
+    /**
+     * End of a line without its line break
+     */
+    private long end(int index) {
+        long end = lineStarts.get(index + 1);
+        if (index + 1 < size || isLineBreak(end - 1)) { // only the last line may have no line break
+            end--;
+            if (byteAt(chunks, end) == '\n' && end > lineStarts.get(index) && byteAt(chunks, end - 1) == '\r') end--;
+        }
+        return end;
+    }
+
+    private boolean isLineBreak(long position) {
+        byte b = byteAt(chunks, position);
+        return b == '\n' || b == '\r';
+    }
+
+    /**
+     * First byte of a line that is not a (UTF-8 encoded) whitespace
+     */
+    private long normalizedStart(int index, long end) {
+        long position = lineStarts.get(index);
+        while (position < end) {
+            int bytes = sequenceLength(position, end);
+            if (bytes == 0) break; // malformed, decoded as U+FFFD which is no whitespace
+            int b = byteAt(chunks, position) & 0xFF;
+            int codePoint = bytes == 1 ? b : b & (0xFF >>> (bytes + 1));
+            for (int k = 1; k < bytes; k++) codePoint = (codePoint << 6) | (byteAt(chunks, position + k) & 0x3F);
+            if (!Character.isWhitespace(codePoint)) break;
+            position += bytes;
+        }
+        return position;
+    }
+
+    private byte[] bytes(long start, long end) {
+        byte[] bytes = new byte[Math.toIntExact(end - start)];
+        int copied = 0;
+        while (copied < bytes.length) { // a line may cross the border of two chunks
+            long position = start + copied;
+            ByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)];
+            int offset = (int) (position & (CHUNK_SIZE - 1));
+            int count = Math.min(bytes.length - copied, chunk.limit() - offset);
+            chunk.get(offset, bytes, copied, count);
+            copied += count;
+        }
+        return bytes;
+    }
+}
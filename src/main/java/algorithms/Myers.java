@@ -0,0 +1,100 @@
+package algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Line diff based on the O((N+M)·D) algorithm of Eugene W. Myers
+ * ("An O(ND) Difference Algorithm and Its Variations", 1986)
+ * Runtime and memory grow with the number of differences D instead of the product of both file lengths
+ * The trace needs about 4·D² bytes; once it would exceed the memory limit of the budget the search is continued with
+ * {@link MyersLinearSpace}, which finds an equally short edit script, so the engine is chosen by the D actually reached
+ *
+ * @see HuntMcIlroy
+ */
+public class Myers implements DiffEngine {
+
+    /**
+     * Find the longest common subsequence of two line lists with the greedy forward search of Myers
+     * For every edit distance d the furthest reaching path on every diagonal k = x - y is kept,
+     * the explored range of each round is stored to be able to walk the path back afterwards
+     *
+     * @param left     Tokens of the left lines
+     * @param right    Tokens of the right lines
+     * @param distinct Not needed, the tokens are only compared
+     * @return Sequences of equal lines in ascending order
+     */
+    @Override
+    public List<HuntMcIlroy.MatchingLineSequence> getMatchingLineSequences(int[] left, int[] right, int distinct) {
+        return getMatchingLineSequences(left, right, distinct, DiffBudget.unlimited());
+    }
+
+    /**
+     * Same search, but if the edit distance exceeds the cost cap or the time limit of the budget has passed, the trace is
+     * dropped and the diff is continued with {@link MyersLinearSpace}, which splits expensive regions heuristically; the
+     * same happens (without any loss) if the trace outgrows the memory limit of the budget
+     */
+    @Override
+    public List<HuntMcIlroy.MatchingLineSequence> getMatchingLineSequences(int[] left, int[] right, int distinct, DiffBudget budget) {
+        int n = left.length;
+        int m = right.length;
+        int max = n + m;
+        int costLimit = budget.costLimit(n, m);
+        int[] v = new int[2 * max + 2]; // furthest x per diagonal, diagonal k is stored at index k + max
+        List<int[]> trace = new ArrayList<>(); // v[-d..d] after every round d
+        long traceBytes = 0;
+
+        outer:
+        for (int d = 0; d <= max; d++) {
+            traceBytes += 4L * (2 * d + 1) + 24; // copy of v[-d..d] with its array header and list slot
+            if (d > costLimit || (d % 64 == 63 && budget.isExpired()) || traceBytes > budget.memoryBytes()) { // too expensive, too late or too large
+                List<HuntMcIlroy.MatchingLineSequence> result = new ArrayList<>();
+                MyersLinearSpace.addMatchingLineSequences(left, 0, n, right, 0, m, result, budget);
+                return result;
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (d == 0) x = 0;
+                else if (k == -d || (k != d && v[k - 1 + max] < v[k + 1 + max])) x = v[k + 1 + max]; // step down (line only in right)
+                else x = v[k - 1 + max] + 1; // step right (line only in left)
+                int y = x - k;
+                while (x < n && y < m && left[x] == right[y]) { // follow the snake (equal lines)
+                    x++;
+                    y++;
+                }
+                v[k + max] = x;
+                if (x >= n && y >= m) {
+                    trace.add(Arrays.copyOfRange(v, max - d, max + d + 1));
+                    break outer;
+                }
+            }
+            trace.add(Arrays.copyOfRange(v, max - d, max + d + 1));
+        }
+
+        return backtrack(trace, n, m);
+    }
+
+    private static List<HuntMcIlroy.MatchingLineSequence> backtrack(List<int[]> trace, int n, int m) {
+        List<HuntMcIlroy.MatchingLineSequence> result = new ArrayList<>();
+        int x = n;
+        int y = m;
+        for (int d = trace.size() - 1; d > 0; d--) {
+            int[] previous = trace.get(d - 1); // v[-(d-1)..(d-1)], diagonal k is stored at index k + d - 1
+            int k = x - y;
+            boolean down = k == -d || (k != d && previous[k - 1 + d - 1] < previous[k + 1 + d - 1]);
+            int previousK = down ? k + 1 : k - 1;
+            int previousX = previous[previousK + d - 1];
+            int previousY = previousX - previousK;
+            int snakeStartX = down ? previousX : previousX + 1;
+            int snakeStartY = down ? previousY + 1 : previousY;
+            if (x > snakeStartX) result.add(new HuntMcIlroy.MatchingLineSequence(snakeStartX, snakeStartY, x - snakeStartX));
+            x = previousX;
+            y = previousY;
+        }
+        if (x > 0) result.add(new HuntMcIlroy.MatchingLineSequence(0, 0, x)); // snake of round 0 starts at (0,0)
+        Collections.reverse(result); // sequences were collected from the end
+        return result;
+    }
+}
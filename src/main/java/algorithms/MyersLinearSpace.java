@@ -0,0 +1,179 @@
+package algorithms;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Linear space variant of the {@link Myers} line diff
+ * Instead of keeping a trace for every edit distance, the "middle snake" of the optimal path is searched
+ * from both ends at once and the two halves left and right of it are solved recursively (divide and conquer)
+ * Besides the result only two int arrays of size 2·(N+M)+2 are needed
+ * After the time limit of the {@link DiffBudget} or above its cost cap a search stops and splits at the furthest reaching
+ * point instead of the middle snake (GNU diff's TOO_EXPENSIVE heuristic); such splits do not halve the edit distance, so the
+ * regions are kept on an explicit stack instead of the call stack
+ *
+ * @see Myers
+ * @see HuntMcIlroy
+ */
+public class MyersLinearSpace implements DiffEngine {
+
+    @Override
+    public List<HuntMcIlroy.MatchingLineSequence> getMatchingLineSequences(int[] left, int[] right, int distinct) {
+        return getMatchingLineSequences(left, right, distinct, DiffBudget.unlimited());
+    }
+
+    @Override
+    public List<HuntMcIlroy.MatchingLineSequence> getMatchingLineSequences(int[] left, int[] right, int distinct, DiffBudget budget) {
+        List<HuntMcIlroy.MatchingLineSequence> result = new ArrayList<>();
+        addMatchingLineSequences(left, 0, left.length, right, 0, right.length, result, budget);
+        return result;
+    }
+
+    /**
+     * Diff left[leftStart..leftEnd) against right[rightStart..rightEnd) and add the equal sequences (absolute indices) to result
+     * Used as fallback by engines that split the files into smaller regions first
+     */
+    static void addMatchingLineSequences(int[] left, int leftStart, int leftEnd, int[] right, int rightStart, int rightEnd, //
+                                         List<HuntMcIlroy.MatchingLineSequence> result, DiffBudget budget) {
+        int max = (leftEnd - leftStart) + (rightEnd - rightStart);
+        int[] forward = new int[2 * max + 3]; // furthest x per diagonal k (index k + max + 1), reused by every recursion step
+        int[] backward = new int[2 * max + 3]; // same for the search from the end (x counted from the end)
+        int first = result.size();
+        Deque<int[]> regions = new ArrayDeque<>(); // {leftStart, leftEnd, rightStart, rightEnd}
+        regions.push(new int[]{leftStart, leftEnd, rightStart, rightEnd});
+        while (!regions.isEmpty()) {
+            int[] next = regions.pop();
+            diff(left, next[0], next[1], right, next[2], next[3], forward, backward, result, budget, regions);
+        }
+        result.subList(first, result.size()).sort(Comparator.comparingInt(HuntMcIlroy.MatchingLineSequence::startLeft)); // regions finish out of order
+    }
+
+    /**
+     * Add the common prefix, suffix and middle snake of left[leftStart..leftEnd) and right[rightStart..rightEnd),
+     * the regions left and right of the snake are pushed
+     */
+    private static void diff(int[] left, int leftStart, int leftEnd, int[] right, int rightStart, int rightEnd, //
+                             int[] forward, int[] backward, List<HuntMcIlroy.MatchingLineSequence> result, DiffBudget budget, Deque<int[]> regions) {
+        // common prefix
+        int prefix = 0;
+        while (leftStart + prefix < leftEnd && rightStart + prefix < rightEnd //
+                && left[leftStart + prefix] == right[rightStart + prefix]) prefix++;
+        if (prefix > 0) result.add(new HuntMcIlroy.MatchingLineSequence(leftStart, rightStart, prefix));
+        leftStart += prefix;
+        rightStart += prefix;
+
+        // common suffix
+        int suffix = 0;
+        while (leftStart < leftEnd - suffix && rightStart < rightEnd - suffix //
+                && left[leftEnd - suffix - 1] == right[rightEnd - suffix - 1]) suffix++;
+        leftEnd -= suffix;
+        rightEnd -= suffix;
+        if (suffix > 0) result.add(new HuntMcIlroy.MatchingLineSequence(leftEnd, rightEnd, suffix));
+
+        if (leftStart < leftEnd && rightStart < rightEnd) { // otherwise only deleted or only inserted lines remain
+            int[] snake = middleSnake(left, leftStart, leftEnd, right, rightStart, rightEnd, forward, backward, budget);
+            if (snake[2] > snake[0]) result.add(new HuntMcIlroy.MatchingLineSequence(snake[0], snake[1], snake[2] - snake[0]));
+            regions.push(new int[]{snake[2], leftEnd, snake[3], rightEnd});
+            regions.push(new int[]{leftStart, snake[0], rightStart, snake[1]});
+        }
+    }
+
+    /**
+     * Search the optimal path from the top left and from the bottom right at the same time until both meet
+     * Requires that the first and the last lines of both ranges differ (no common prefix/suffix),
+     * so the returned snake never touches both corners and the recursion always gets smaller
+     *
+     * If the budget is exceeded, an empty snake at the furthest reaching point of both searches is returned instead
+     *
+     * @return {startLeft, startRight, endLeft, endRight} of the middle snake (absolute indices)
+     */
+    private static int[] middleSnake(int[] left, int leftStart, int leftEnd, int[] right, int rightStart, int rightEnd, //
+                                     int[] forward, int[] backward, DiffBudget budget) {
+        int n = leftEnd - leftStart;
+        int m = rightEnd - rightStart;
+        int offset = n + m + 1;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int costLimit = budget.costLimit(n, m);
+
+        for (int d = 0; d <= (n + m + 1) / 2; d++) {
+            // forward search from (0,0)
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (d == 0) x = 0;
+                else if (k == -d || (k != d && forward[k - 1 + offset] < forward[k + 1 + offset])) x = forward[k + 1 + offset];
+                else x = forward[k - 1 + offset] + 1;
+                int y = x - k;
+                int startX = x;
+                int startY = y;
+                while (x < n && y < m && left[leftStart + x] == right[rightStart + y]) {
+                    x++;
+                    y++;
+                }
+                forward[k + offset] = x;
+                int backwardK = delta - k;
+                if (odd && backwardK >= -(d - 1) && backwardK <= d - 1 && x + backward[backwardK + offset] >= n) {
+                    return new int[]{leftStart + startX, rightStart + startY, leftStart + x, rightStart + y};
+                }
+            }
+            // backward search from (n,m), coordinates are counted from the end
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (d == 0) x = 0;
+                else if (k == -d || (k != d && backward[k - 1 + offset] < backward[k + 1 + offset])) x = backward[k + 1 + offset];
+                else x = backward[k - 1 + offset] + 1;
+                int y = x - k;
+                int startX = x;
+                int startY = y;
+                while (x < n && y < m && left[leftEnd - x - 1] == right[rightEnd - y - 1]) {
+                    x++;
+                    y++;
+                }
+                backward[k + offset] = x;
+                int forwardK = delta - k;
+                if (!odd && forwardK >= -d && forwardK <= d && x + forward[forwardK + offset] >= n) {
+                    return new int[]{leftEnd - x, rightEnd - y, leftEnd - startX, rightEnd - startY};
+                }
+            }
+            if (d >= costLimit || (d % 64 == 63 && budget.isExpired())) { // too expensive: split where the searches got furthest
+                int[] split = furthestPoint(n, m, d, offset, forward, backward);
+                if (split != null) {
+                    budget.markCutOff();
+                    return new int[]{leftStart + split[0], rightStart + split[1], leftStart + split[0], rightStart + split[1]};
+                }
+            }
+        }
+        throw new IllegalStateException("Middle snake not found"); // unreachable, both searches meet after (n+m+1)/2 rounds
+    }
+
+    /**
+     * Point of round d that is furthest from its corner (largest x + y), from the forward or the backward search
+     *
+     * @return {x, y} relative to the region, neither (0, 0) nor (n, m), or null if there is no such point
+     */
+    private static int[] furthestPoint(int n, int m, int d, int offset, int[] forward, int[] backward) {
+        int bestX = -1;
+        int bestY = -1;
+        int bestProgress = 0;
+        for (int k = -d; k <= d; k += 2) {
+            int x = forward[k + offset];
+            int y = x - k;
+            if (x <= n && y >= 0 && y <= m && x + y > bestProgress && x + y < n + m) {
+                bestProgress = x + y;
+                bestX = x;
+                bestY = y;
+            }
+            x = backward[k + offset]; // counted from the end
+            y = x - k;
+            if (x <= n && y >= 0 && y <= m && x + y > bestProgress && x + y < n + m) {
+                bestProgress = x + y;
+                bestX = n - x;
+                bestY = m - y;
+            }
+        }
+        return bestProgress == 0 ? null : new int[]{bestX, bestY};
+    }
+}
@@ -0,0 +1,152 @@
+package algorithms;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Patience diff (Bram Cohen)
+ * Lines that occur exactly once in both regions are used as anchors, the longest increasing subsequence of these
+ * anchors is kept (patience sorting) and the gaps between them are diffed recursively
+ * Regions without unique lines fall back to {@link MyersLinearSpace}
+ * The hunks follow the structure of source code (unique lines like method signatures) and are easier to read
+ *
+ * @see HistogramDiff
+ */
+public class PatienceDiff implements DiffEngine {
+
+    @Override
+    public List<HuntMcIlroy.MatchingLineSequence> getMatchingLineSequences(int[] left, int[] right, int distinct) {
+        return getMatchingLineSequences(left, right, distinct, DiffBudget.unlimited());
+    }
+
+    @Override
+    public List<HuntMcIlroy.MatchingLineSequence> getMatchingLineSequences(int[] left, int[] right, int distinct, DiffBudget budget) {
+        Matcher matcher = new Matcher(left, right, distinct, budget);
+        matcher.diff(0, left.length, 0, right.length);
+        return matcher.result;
+    }
+
+    /**
+     * Anchors of the whole input without any recursion, e.g. for a quick first result
+     *
+     * @param left     Tokens of the left lines
+     * @param right    Tokens of the right lines
+     * @param distinct Number of different tokens
+     * @return {leftIndex, rightIndex} of lines that are unique in both inputs and in the same order, ascending
+     */
+    static int[][] anchors(int[] left, int[] right, int distinct) {
+        return new Matcher(left, right, distinct, DiffBudget.unlimited()).getAnchors(0, left.length, 0, right.length);
+    }
+
+    /**
+     * State of one diff call
+     */
+    private static final class Matcher {
+
+        private final int[] left;
+        private final int[] right;
+        // per token, only used while one region is searched for anchors and reset afterwards
+        private final int[] leftCount;
+        private final int[] rightCount;
+        private final int[] rightPosition;
+        private final List<HuntMcIlroy.MatchingLineSequence> result = new ArrayList<>();
+        private final DiffBudget budget; // only used by the fallback
+
+        private Matcher(int[] left, int[] right, int distinct, DiffBudget budget) {
+            this.left = left;
+            this.right = right;
+            this.budget = budget;
+            leftCount = new int[distinct];
+            rightCount = new int[distinct];
+            rightPosition = new int[distinct];
+        }
+
+        private void diff(int leftStart, int leftEnd, int rightStart, int rightEnd) {
+            // common prefix
+            int prefix = 0;
+            while (leftStart + prefix < leftEnd && rightStart + prefix < rightEnd && left[leftStart + prefix] == right[rightStart + prefix]) prefix++;
+            if (prefix > 0) result.add(new HuntMcIlroy.MatchingLineSequence(leftStart, rightStart, prefix));
+            leftStart += prefix;
+            rightStart += prefix;
+
+            // common suffix (added after the middle part)
+            int suffix = 0;
+            while (leftStart < leftEnd - suffix && rightStart < rightEnd - suffix && left[leftEnd - suffix - 1] == right[rightEnd - suffix - 1]) suffix++;
+            leftEnd -= suffix;
+            rightEnd -= suffix;
+
+            if (leftStart < leftEnd && rightStart < rightEnd) {
+                int[][] anchors = getAnchors(leftStart, leftEnd, rightStart, rightEnd);
+                if (anchors.length == 0) { // no unique lines in this region
+                    MyersLinearSpace.addMatchingLineSequences(left, leftStart, leftEnd, right, rightStart, rightEnd, result, budget);
+                } else {
+                    int currentLeft = leftStart;
+                    int currentRight = rightStart;
+                    for (int[] anchor : anchors) {
+                        diff(currentLeft, anchor[0], currentRight, anchor[1]);
+                        result.add(new HuntMcIlroy.MatchingLineSequence(anchor[0], anchor[1], 1));
+                        currentLeft = anchor[0] + 1;
+                        currentRight = anchor[1] + 1;
+                    }
+                    diff(currentLeft, leftEnd, currentRight, rightEnd);
+                }
+            }
+
+            if (suffix > 0) result.add(new HuntMcIlroy.MatchingLineSequence(leftEnd, rightEnd, suffix));
+        }
+
+        /**
+         * Find lines that are unique in both regions and keep the longest increasing subsequence of them
+         *
+         * @return {leftIndex, rightIndex} of the anchors in ascending order
+         */
+        private int[][] getAnchors(int leftStart, int leftEnd, int rightStart, int rightEnd) {
+            for (int i = leftStart; i < leftEnd; i++) leftCount[left[i]]++;
+            for (int j = rightStart; j < rightEnd; j++) {
+                rightCount[right[j]]++;
+                rightPosition[right[j]] = j;
+            }
+
+            // unique pairs in left order
+            int[] uniqueLeft = new int[Math.min(leftEnd - leftStart, rightEnd - rightStart)];
+            int[] uniqueRight = new int[uniqueLeft.length];
+            int uniqueCount = 0;
+            for (int i = leftStart; i < leftEnd && uniqueCount < uniqueLeft.length; i++) {
+                int token = left[i];
+                if (leftCount[token] == 1 && rightCount[token] == 1) {
+                    uniqueLeft[uniqueCount] = i;
+                    uniqueRight[uniqueCount] = rightPosition[token];
+                    uniqueCount++;
+                }
+            }
+
+            for (int i = leftStart; i < leftEnd; i++) leftCount[left[i]] = 0;
+            for (int j = rightStart; j < rightEnd; j++) rightCount[right[j]] = 0;
+
+            // patience sorting: top card of every pile, each card remembers the top of the pile left of it
+            int[] pileTops = new int[uniqueCount];
+            int[] previous = new int[uniqueCount];
+            int piles = 0;
+            for (int card = 0; card < uniqueCount; card++) {
+                int low = 0;
+                int high = piles;
+                while (low < high) { // first pile whose top is greater than this card
+                    int middle = (low + high) >>> 1;
+                    if (uniqueRight[pileTops[middle]] < uniqueRight[card]) low = middle + 1;
+                    else high = middle;
+                }
+                pileTops[low] = card;
+                previous[card] = low > 0 ? pileTops[low - 1] : -1;
+                if (low == piles) piles++;
+            }
+
+            int[][] anchors = new int[piles][];
+            int card = piles > 0 ? pileTops[piles - 1] : -1;
+            for (int i = piles - 1; i >= 0; i--) {
+                anchors[i] = new int[]{uniqueLeft[card], uniqueRight[card]};
+                card = previous[card];
+            }
+            return anchors;
+        }
+    }
+}
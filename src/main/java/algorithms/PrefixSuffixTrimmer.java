@@ -0,0 +1,99 @@
+package algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiFunction;
+
+/**
+ * Pre-pass in front of the line diff engines
+ * Most compared files share long identical heads and tails (generated headers, license blocks, ...),
+ * so the common prefix and suffix are stripped with a plain token comparison and only the middle window is diffed
+ *
+ * @see LineTokenizer
+ */
+public class PrefixSuffixTrimmer {
+
+    /**
+     * Tokenize two lists of lines and diff the part between their common prefix and suffix
+     *
+     * @param leftLines  Lines of the left file
+     * @param rightLines Lines of the right file
+     * @param engine     Diff engine for the middle window
+     * @param budget     Budget of this call
+     * @return Sequences of equal lines in ascending order
+     */
+    static List<HuntMcIlroy.MatchingLineSequence> diff(List<String> leftLines, List<String> rightLines, DiffEngine engine, DiffBudget budget) {
+        LineTokenizer.TokenizedLines tokens = LineTokenizer.tokenize(leftLines, rightLines);
+        return diff(tokens.left(), tokens.right(), (left, right) -> engine.getMatchingLineSequences(left, right, tokens.distinct(), budget));
+    }
+
+    /**
+     * Result of {@link #diff(List, List, DiffAlgorithm, long, DiffBudget)}
+     *
+     * @param sequences Sequences of equal lines in ascending order
+     * @param used      Engine that diffed the middle window
+     */
+    record SelectedDiff(List<HuntMcIlroy.MatchingLineSequence> sequences, DiffAlgorithm used) {
+    }
+
+    /**
+     * Tokenize two lists of lines and diff the part between their common prefix and suffix with the engine that fits
+     * the size of that window, see {@link DiffAlgorithm#select(DiffAlgorithm, int, int, long)}
+     *
+     * @param leftLines   Lines of the left file
+     * @param rightLines  Lines of the right file
+     * @param requested   Selected engine
+     * @param memoryBytes Memory budget of the diff
+     * @param budget      Budget of this call
+     * @return Sequences of equal lines and the engine that was used
+     */
+    static SelectedDiff diff(List<String> leftLines, List<String> rightLines, DiffAlgorithm requested, long memoryBytes, DiffBudget budget) {
+        return diff(LineTokenizer.tokenize(leftLines, rightLines), requested, memoryBytes, budget);
+    }
+
+    /**
+     * Same as {@link #diff(List, List, DiffAlgorithm, long, DiffBudget)} for lines that are tokenized already
+     */
+    static SelectedDiff diff(LineTokenizer.TokenizedLines tokens, DiffAlgorithm requested, long memoryBytes, DiffBudget budget) {
+        DiffAlgorithm[] used = {DiffAlgorithm.select(requested, 0, 0, memoryBytes)}; // if the window is empty
+        List<HuntMcIlroy.MatchingLineSequence> sequences = diff(tokens.left(), tokens.right(), (left, right) -> {
+            used[0] = DiffAlgorithm.select(requested, left.length, right.length, memoryBytes);
+            return used[0].engine.getMatchingLineSequences(left, right, tokens.distinct(), budget);
+        });
+        return new SelectedDiff(sequences, used[0]);
+    }
+
+    /**
+     * Diff two token sequences, but only hand the part between the common prefix and the common suffix to the engine
+     * The trimmed lines are added again as matching sequences, so the result covers the whole input
+     *
+     * @param left   Tokens of the left lines
+     * @param right  Tokens of the right lines
+     * @param engine Diff engine for the middle window, gets the window tokens and returns sequences relative to it
+     * @return Sequences of equal lines in ascending order
+     */
+    public static List<HuntMcIlroy.MatchingLineSequence> diff(int[] left, int[] right, BiFunction<int[], int[], List<HuntMcIlroy.MatchingLineSequence>> engine) {
+        int prefix = 0;
+        int maxLength = Math.min(left.length, right.length);
+        while (prefix < maxLength && left[prefix] == right[prefix]) prefix++;
+        int suffix = 0;
+        while (suffix < maxLength - prefix && left[left.length - suffix - 1] == right[right.length - suffix - 1]) suffix++;
+
+        List<HuntMcIlroy.MatchingLineSequence> result = new ArrayList<>();
+        if (prefix > 0) result.add(new HuntMcIlroy.MatchingLineSequence(0, 0, prefix));
+
+        int leftEnd = left.length - suffix;
+        int rightEnd = right.length - suffix;
+        if (prefix < leftEnd && prefix < rightEnd) { // otherwise the middle window consists only of added or removed lines
+            int[] leftWindow = (prefix == 0 && suffix == 0) ? left : Arrays.copyOfRange(left, prefix, leftEnd);
+            int[] rightWindow = (prefix == 0 && suffix == 0) ? right : Arrays.copyOfRange(right, prefix, rightEnd);
+            for (HuntMcIlroy.MatchingLineSequence sequence : engine.apply(leftWindow, rightWindow)) { // shift back into the whole file
+                result.add(new HuntMcIlroy.MatchingLineSequence(sequence.startLeft() + prefix, sequence.startRight() + prefix, sequence.length()));
+            }
+        }
+
+        if (suffix > 0) result.add(new HuntMcIlroy.MatchingLineSequence(leftEnd, rightEnd, suffix));
+        return result;
+    }
+}
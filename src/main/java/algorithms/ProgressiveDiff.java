@@ -0,0 +1,292 @@
+package algorithms;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coarse-to-fine diff of large files
+ * First only the lines that are unique in both files are matched (the top level of {@link PatienceDiff}) and grown into
+ * blocks of equal lines, which is enough for a first result after one pass over the tokens
+ * The regions between these blocks are then diffed with the selected engine on the {@link ForkJoinPool}; the listener
+ * gets an updated result every {@link #PUBLISH_INTERVAL_MILLIS} ms while regions finish
+ * Anchoring on unique lines is not always optimal, so the final result comes from the selected engine over the whole
+ * files (the same diff as {@link FileUtils#compareFiles(File, File, DiffSession)}); only if that fails, the refined
+ * blocks are kept and marked as approximate
+ * Small files are compared directly with {@link FileUtils#compareFiles(File, File, DiffSession)}
+ *
+ * @see FileUtils
+ */
+public final class ProgressiveDiff {
+
+    /**
+     * Files smaller than this (together) are compared in one step
+     */
+    private static final long PROGRESSIVE_MIN_BYTES = 1L << 20;
+    private static final long PUBLISH_INTERVAL_MILLIS = 250;
+    private static final String COARSE_NOTICE = "Näherung: Blöcke um eindeutige Zeilen vorab festgelegt (Vergleich der ganzen Dateien fehlgeschlagen), die Differenz ist evtl. nicht minimal";
+
+    /**
+     * Receives the results of a progressive diff, not on the UI thread
+     */
+    public interface Listener {
+        /**
+         * @param result   Current result, the regions that are not refined yet are shown as changed lines
+         * @param complete true for the last call, the result is final
+         */
+        void update(FileUtils.LineResult result, boolean complete);
+    }
+
+    private final List<String> leftLines;
+    private final List<String> rightLines;
+    private final LineTokenizer.TokenizedLines tokens;
+    private final int[] left;
+    private final int[] right;
+    private final int distinct;
+    private final List<HuntMcIlroy.MatchingLineSequence> blocks; // coarse blocks, gap g lies in front of block g
+    private final int[][] gaps; // {leftStart, leftEnd, rightStart, rightEnd} per gap, gaps.length = blocks.size() + 1
+    private final List<List<HuntMcIlroy.MatchingLineSequence>> refined; // per gap, null while not refined
+    private final Listener listener;
+    private final DiffAlgorithm requested = FileUtils.getDiffAlgorithm();
+    private final DiffBudget budget = FileUtils.newDiffBudget(); // of the gaps
+    private volatile DiffBudget wholeBudget; // of the final diff over the whole files, null before it starts
+    private volatile DiffAlgorithm leastExact = null; // engine that was used in place of the selected one in a gap, if any
+    private volatile boolean cancelled;
+
+    private ProgressiveDiff(List<String> leftLines, List<String> rightLines, Listener listener) {
+        this.leftLines = leftLines;
+        this.rightLines = rightLines;
+        this.listener = listener;
+        tokens = LineTokenizer.tokenize(leftLines, rightLines);
+        left = tokens.left();
+        right = tokens.right();
+        distinct = tokens.distinct();
+        blocks = PrefixSuffixTrimmer.diff(left, right, (leftWindow, rightWindow) -> coarseBlocks(leftWindow, rightWindow, distinct));
+        gaps = new int[blocks.size() + 1][];
+        int leftEnd = 0;
+        int rightEnd = 0;
+        for (int g = 0; g < gaps.length; g++) {
+            HuntMcIlroy.MatchingLineSequence next = g < blocks.size() ? blocks.get(g) : new HuntMcIlroy.MatchingLineSequence(left.length, right.length, 0);
+            gaps[g] = new int[]{leftEnd, next.startLeft(), rightEnd, next.startRight()};
+            leftEnd = next.startLeft() + next.length();
+            rightEnd = next.startRight() + next.length();
+        }
+        refined = new ArrayList<>(Collections.nCopies(gaps.length, null));
+    }
+
+    /**
+     * Compare two files, the listener gets a first result before this method returns
+     * The refinement continues on a background thread, large files get further updates until the final result
+     * (complete is only true for that one)
+     *
+     * @param leftFile  First file to compare
+     * @param rightFile Second file to compare
+     * @param session   Session that owns the mapped files (cancel the diff before closing it), null for none
+     * @param listener  Receives the first result on the calling thread and the updates on the background thread
+     * @return Handle to cancel the refinement
+     */
+    public static ProgressiveDiff start(File leftFile, File rightFile, DiffSession session, Listener listener) {
+        if (leftFile.length() + rightFile.length() < PROGRESSIVE_MIN_BYTES //
+                || BinaryHeuristics.fileTypeOf(leftFile, false) != FileType.TEXT || BinaryHeuristics.fileTypeOf(rightFile, false) != FileType.TEXT) {
+            listener.update(FileUtils.compareFiles(leftFile, rightFile, session), true); // quick anyway, or only a message
+            return null;
+        }
+        ProgressiveDiff diff;
+        try {
+            diff = session == null ? new ProgressiveDiff(HuntMcIlroy.readLines(leftFile), HuntMcIlroy.readLines(rightFile), listener) //
+                    : new ProgressiveDiff(session.map(leftFile), session.map(rightFile), listener);
+        } catch (IOException | OutOfMemoryError e) {
+            listener.update(FileUtils.compareFiles(leftFile, rightFile, session), true); // reports the error as message
+            return null;
+        }
+        listener.update(diff.preliminaryResult(diff.openGaps()), false);
+        Thread refinement = new Thread(diff::refine, "progressive-diff");
+        refinement.setDaemon(true);
+        refinement.start();
+        return diff;
+    }
+
+    /**
+     * Stop the refinement, no more updates are sent (e.g. if another file pair is shown)
+     */
+    public void cancel() {
+        cancelled = true;
+        budget.stop(); // running searches end quickly, their result is dropped
+        DiffBudget whole = wholeBudget;
+        if (whole != null) whole.stop();
+    }
+
+    /**
+     * Blocks of equal lines around the unique lines of both windows
+     */
+    private static List<HuntMcIlroy.MatchingLineSequence> coarseBlocks(int[] left, int[] right, int distinct) {
+        List<HuntMcIlroy.MatchingLineSequence> result = new ArrayList<>();
+        int leftEnd = 0; // end of the last block
+        int rightEnd = 0;
+        for (int[] anchor : PatienceDiff.anchors(left, right, distinct)) {
+            if (anchor[0] < leftEnd || anchor[1] < rightEnd) continue; // already part of the last block
+            int start = 0; // grow the anchor in both directions while the lines are equal
+            while (anchor[0] - start - 1 >= leftEnd && anchor[1] - start - 1 >= rightEnd && left[anchor[0] - start - 1] == right[anchor[1] - start - 1]) start++;
+            int end = 1;
+            while (anchor[0] + end < left.length && anchor[1] + end < right.length && left[anchor[0] + end] == right[anchor[1] + end]) end++;
+            result.add(new HuntMcIlroy.MatchingLineSequence(anchor[0] - start, anchor[1] - start, start + end));
+            leftEnd = anchor[0] + end;
+            rightEnd = anchor[1] + end;
+        }
+        return result;
+    }
+
+    private int openGaps() {
+        int open = 0;
+        for (int[] gap : gaps) if (gap[0] < gap[1] && gap[2] < gap[3]) open++;
+        return open;
+    }
+
+    /**
+     * Diff all gaps with lines on both sides and publish every PUBLISH_INTERVAL_MILLIS, then diff the whole files and
+     * publish that as the final result
+     */
+    private void refine() {
+        ExecutorCompletionService<Integer> completion = new ExecutorCompletionService<>(ForkJoinPool.commonPool());
+        int submitted = 0;
+        for (int g = 0; g < gaps.length; g++) {
+            int[] gap = gaps[g];
+            if (gap[0] >= gap[1] || gap[2] >= gap[3]) continue; // only added or only removed lines, nothing to refine
+            int index = g;
+            completion.submit(() -> refineGap(index), index);
+            submitted++;
+        }
+
+        long lastPublish = System.nanoTime();
+        int done = 0;
+        int failed = 0;
+        try {
+            while (done < submitted) {
+                if (cancelled) return;
+                try {
+                    Future<Integer> finished = completion.poll(PUBLISH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (finished != null) {
+                        finished.get();
+                        done++;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    done++; // this gap stays coarse
+                    failed++;
+                }
+                if (done < submitted && System.nanoTime() - lastPublish >= TimeUnit.MILLISECONDS.toNanos(PUBLISH_INTERVAL_MILLIS)) {
+                    listener.update(preliminaryResult(submitted - done), false);
+                    lastPublish = System.nanoTime();
+                }
+            }
+            if (cancelled) return;
+            if (submitted > 0) listener.update(preliminaryResult(0), false); // all gaps refined, readable while the whole files are diffed
+            FileUtils.LineResult result = wholeResult();
+            if (result == null) result = refinedResult(failed); // the whole files could not be diffed, keep the blocks
+            if (!cancelled) listener.update(result, true);
+        } catch (IllegalStateException e) { // the session was closed right after the check for cancel, nobody waits for the result
+        }
+    }
+
+    private void refineGap(int g) {
+        if (cancelled) return;
+        int[] gap = gaps[g];
+        int[] leftGap = Arrays.copyOfRange(left, gap[0], gap[1]);
+        int[] rightGap = Arrays.copyOfRange(right, gap[2], gap[3]);
+        DiffAlgorithm used = DiffAlgorithm.select(requested, leftGap.length, rightGap.length, FileUtils.getAvailableMemoryBudget());
+        List<HuntMcIlroy.MatchingLineSequence> sequences;
+        try {
+            sequences = used.engine.getMatchingLineSequences(leftGap, rightGap, distinct, budget);
+        } catch (OutOfMemoryError e) {
+            used = DiffAlgorithm.MYERS_LINEAR_SPACE;
+            sequences = used.engine.getMatchingLineSequences(leftGap, rightGap, distinct, budget);
+        }
+        if (used != requested && (leastExact == null || !used.isExact())) leastExact = used;
+        List<HuntMcIlroy.MatchingLineSequence> shifted = new ArrayList<>(sequences.size());
+        for (HuntMcIlroy.MatchingLineSequence sequence : sequences) { // back into the whole file
+            shifted.add(new HuntMcIlroy.MatchingLineSequence(sequence.startLeft() + gap[0], sequence.startRight() + gap[2], sequence.length()));
+        }
+        synchronized (refined) {
+            refined.set(g, shifted);
+        }
+    }
+
+    /**
+     * Coarse blocks and the sequences of all gaps that are refined already
+     */
+    private List<HuntMcIlroy.MatchingLineSequence> refinedSequences() {
+        List<HuntMcIlroy.MatchingLineSequence> sequences = new ArrayList<>();
+        synchronized (refined) {
+            for (int g = 0; g < gaps.length; g++) {
+                if (refined.get(g) != null) sequences.addAll(refined.get(g));
+                if (g < blocks.size()) sequences.add(blocks.get(g));
+            }
+        }
+        return sequences;
+    }
+
+    /**
+     * Result while the refinement runs, the gaps are paired by position (similarity pairing is left for the final result)
+     *
+     * @param open Gaps that are not refined yet
+     */
+    private FileUtils.LineResult preliminaryResult(int open) {
+        FileUtils.LineResult result = FileUtils.createLineResultFrom(leftLines, rightLines, refinedSequences(), false);
+        result.setNotice(open > 0 ? "Vorläufiges Ergebnis, " + open + " Bereiche werden im Hintergrund verglichen ..." //
+                : "Vorläufiges Ergebnis, die ganzen Dateien werden im Hintergrund verglichen ...", true);
+        return result;
+    }
+
+    /**
+     * Final result: the selected engine over the whole files, with the same engine selection as {@link FileUtils#compareFiles(File, File)}
+     *
+     * @return Result, null if the diff failed
+     */
+    private FileUtils.LineResult wholeResult() {
+        DiffBudget whole = FileUtils.newDiffBudget();
+        wholeBudget = whole;
+        if (cancelled) whole.stop(); // cancel came before the budget was visible
+        PrefixSuffixTrimmer.SelectedDiff diff;
+        try {
+            diff = PrefixSuffixTrimmer.diff(tokens, requested, FileUtils.getAvailableMemoryBudget(), whole);
+        } catch (OutOfMemoryError e) { // the refined blocks are still held, retry in linear space
+            try {
+                diff = new PrefixSuffixTrimmer.SelectedDiff(PrefixSuffixTrimmer.diff(left, right, //
+                        (leftWindow, rightWindow) -> DiffAlgorithm.MYERS_LINEAR_SPACE.engine.getMatchingLineSequences(leftWindow, rightWindow, distinct, whole)), //
+                        DiffAlgorithm.MYERS_LINEAR_SPACE);
+            } catch (OutOfMemoryError again) {
+                return null;
+            }
+        } catch (RuntimeException e) {
+            return null;
+        }
+        FileUtils.LineResult result = FileUtils.createLineResultFrom(leftLines, rightLines, diff.sequences(), true);
+        FileUtils.describe(result, requested, diff.used(), whole);
+        return result;
+    }
+
+    /**
+     * Final result from the coarse blocks and the refined gaps, used if the whole files could not be diffed
+     *
+     * @param failed Gaps whose diff failed, they are shown as changed lines
+     */
+    private FileUtils.LineResult refinedResult(int failed) {
+        FileUtils.LineResult result = FileUtils.createLineResultFrom(leftLines, rightLines, refinedSequences(), true);
+        DiffAlgorithm used = leastExact;
+        FileUtils.describe(result, requested, used == null ? requested : used, budget);
+        String notice = COARSE_NOTICE;
+        if (failed > 0) notice += "; " + failed + " Bereiche konnten nicht verglichen werden und sind als geänderte Zeilen dargestellt";
+        result.setNotice(result.notice() == null ? notice : result.notice() + "; " + notice, true);
+        return result;
+    }
+}
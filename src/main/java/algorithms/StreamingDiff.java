@@ -0,0 +1,773 @@
+package algorithms;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.Stream;
+
+/**
+ * Diff of files that are larger than the heap, the result is written while it is computed
+ * 1. Both files are read as streams, every line is hashed (64 bit, leading whitespaces ignored) into (hash, line)
+ * records that are sorted on disk (runs of the memory budget, k-way merge)
+ * 2. Hashes that occur exactly once in both files are anchors (like {@link PatienceDiff}), sorted by the left line and
+ * chained block by block with a longest increasing subsequence over the right lines
+ * 3. The files are read again and the lines between two anchors are diffed window by window with the selected engine;
+ * a region that does not fit into one window is cut, the result is then marked as approximate
+ * The memory budget is split across the phases, the buffers of a phase are released when it ends:
+ * records 1/2 and anchors 1/4 (phase 1 and 2), anchors 1/4 and the chain block 1/4 (phase 2),
+ * window 1/4, window diff 1/2 and the open hunk 1/8 (phase 3)
+ *
+ * @see FileUtils#getAvailableMemoryBudget()
+ */
+public final class StreamingDiff {
+
+    /**
+     * Output formats
+     */
+    public enum Format {
+        UNIFIED, // like diff -u
+        HTML // table like the HTML export of FileUtils
+    }
+
+    private static final int CONTEXT = 3; // lines of context around a unified hunk
+    private static final int MIN_WINDOW = 1_000;
+    private static final long MIN_MEMORY = 16L << 20;
+    private static final int LEFT = 0;
+    private static final int RIGHT = 1;
+
+    private final long memoryBytes;
+    private final long recordBytes; // shares of the memory budget, see above
+    private final long anchorBytes;
+    private final long chainBytes;
+    private final long windowBytes;
+    private final long windowDiffBytes;
+    private final long hunkBytes;
+    private final Path spill;
+    private final DiffAlgorithm requested = FileUtils.getDiffAlgorithm();
+    private final DiffBudget budget; // one time budget for all windows of the run
+    private DiffAlgorithm used; // least exact engine of all windows
+    private boolean windowCut; // a region was larger than one window
+    private boolean approximate;
+    private int window; // lines per side of one window
+
+    private StreamingDiff(long memoryBytes, Path spill) {
+        this.memoryBytes = Math.max(MIN_MEMORY, memoryBytes);
+        this.spill = spill;
+        recordBytes = this.memoryBytes / 2;
+        anchorBytes = this.memoryBytes / 4;
+        chainBytes = this.memoryBytes / 4;
+        windowBytes = this.memoryBytes / 4;
+        windowDiffBytes = this.memoryBytes / 2;
+        hunkBytes = this.memoryBytes / 8;
+        used = requested;
+        budget = FileUtils.newDiffBudget().withMemoryLimit(windowDiffBytes);
+    }
+
+    /**
+     * Compare two files of any size within the configured memory budget
+     *
+     * @param leftFile  First file to compare
+     * @param rightFile Second file to compare
+     * @param output    File to write the diff to, replaced if it exists
+     * @param format    Unified diff or HTML table
+     * @return true if the result is approximate (a region was larger than one window or cut off by the time limit or cost cap)
+     * @throws IOException if a file can not be read or written
+     */
+    public static boolean write(File leftFile, File rightFile, File output, Format format) throws IOException {
+        try (Writer out = Files.newBufferedWriter(output.toPath(), StandardCharsets.UTF_8)) {
+            return write(leftFile, rightFile, out, format, FileUtils.getAvailableMemoryBudget());
+        }
+    }
+
+    /**
+     * Compare two files of any size, the spill files are created in the temporary directory and deleted afterwards
+     *
+     * @param memoryBytes Heap the diff may use (at least 16 MB are used)
+     * @return true if the result is approximate
+     */
+    static boolean write(File leftFile, File rightFile, Writer out, Format format, long memoryBytes) throws IOException {
+        Path spill = Files.createTempDirectory("jaywindiff");
+        try {
+            StreamingDiff diff = new StreamingDiff(memoryBytes, spill);
+            RowWriter rows = format == Format.HTML ? new HtmlWriter(out, leftFile, rightFile) : new UnifiedWriter(out, leftFile, rightFile, diff.hunkBytes);
+            diff.run(leftFile, rightFile, rows);
+            rows.finish(diff.notice());
+            out.flush();
+            return diff.approximate;
+        } finally {
+            try (Stream<Path> files = Files.list(spill)) {
+                for (Path file : (Iterable<Path>) files::iterator) Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(spill);
+        }
+    }
+
+    /**
+     * @return What made the diff approximate or replaced the selected engine, null if there is nothing to report
+     */
+    private String notice() {
+        String notice = FileUtils.notice(requested, used, budget);
+        if (!windowCut) return notice;
+        String cut = "Näherung: Bereiche mit mehr als " + window + " Zeilen wurden in Fenstern verglichen (Speicherbudget), die Differenz ist evtl. nicht minimal";
+        return notice == null ? cut : notice + "; " + cut;
+    }
+
+    /**
+     * @return true if the files are too large to be compared in memory and should be streamed
+     */
+    public static boolean isTooLarge(File leftFile, File rightFile) {
+        return leftFile.length() + rightFile.length() > FileUtils.getAvailableMemoryBudget();
+    }
+
+    private void run(File leftFile, File rightFile, RowWriter rows) throws IOException {
+        // 1. (hash, side | line) records, sorted by hash
+        long[] lines = new long[2];
+        long[] bytes = new long[2];
+        Path chain = spill.resolve("chain");
+        try (ExternalSorter records = new ExternalSorter(spill, "records", recordBytes)) {
+            for (int side = LEFT; side <= RIGHT; side++) {
+                try (LineReader reader = new LineReader(side == LEFT ? leftFile : rightFile)) {
+                    while (reader.next()) {
+                        records.add(reader.hash(), lines[side]++ << 1 | side);
+                        bytes[side] += reader.length() + 1;
+                    }
+                }
+            }
+            try (ExternalSorter anchors = new ExternalSorter(spill, "anchors", anchorBytes)) {
+                findAnchors(records, anchors);
+                records.close(); // its buffer is not needed for the chain
+                try (PairSource sorted = anchors.sorted(); DataOutputStream out = output(chain)) {
+                    chain(sorted, out, (int) Math.min(Integer.MAX_VALUE / 4, chainBytes / (3 * Long.BYTES)));
+                }
+            }
+        }
+
+        // 3. windows between the anchors
+        long averageLength = (bytes[LEFT] + bytes[RIGHT]) / Math.max(1, lines[LEFT] + lines[RIGHT]);
+        window = (int) Math.max(MIN_WINDOW, Math.min(Integer.MAX_VALUE / 4, windowBytes / (2 * averageLength + 64))); // lines per side
+        try (LineReader left = new LineReader(leftFile); LineReader right = new LineReader(rightFile); DataInputStream in = input(chain)) {
+            Cursor cursor = new Cursor(left, right, rows);
+            while (true) {
+                long leftAnchor;
+                long rightAnchor;
+                try {
+                    leftAnchor = in.readLong();
+                    rightAnchor = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                cursor.diffUntil(leftAnchor, rightAnchor);
+                cursor.anchor();
+            }
+            cursor.diffUntil(lines[LEFT], lines[RIGHT]);
+        }
+    }
+
+    /**
+     * 2. Anchors: hashes that occur once in both files, sorted by the left line
+     */
+    private static void findAnchors(ExternalSorter records, ExternalSorter anchors) throws IOException {
+        try (PairSource sorted = records.sorted()) {
+            boolean more = sorted.next();
+            while (more) {
+                long hash = sorted.key();
+                int[] count = new int[2];
+                long[] line = new long[2];
+                do {
+                    int side = (int) (sorted.value() & 1);
+                    count[side]++;
+                    line[side] = sorted.value() >>> 1;
+                    more = sorted.next();
+                } while (more && sorted.key() == hash);
+                if (count[LEFT] == 1 && count[RIGHT] == 1) anchors.add(line[LEFT], line[RIGHT]);
+            }
+        }
+    }
+
+    /**
+     * Longest increasing chain of the anchors (sorted by the left line) over their right lines, block by block
+     * Each block holds up to blockSize anchors behind the last chained one; the LIS is exact within a block
+     */
+    private static void chain(PairSource anchors, DataOutputStream out, int blockSize) throws IOException {
+        long[] left = new long[blockSize];
+        long[] right = new long[blockSize];
+        int[] previous = new int[blockSize];
+        int[] tails = new int[blockSize]; // tails[k]: anchor that ends the best chain of length k + 1
+        long lastRight = -1;
+        boolean more = anchors.next();
+        while (more) {
+            int n = 0;
+            while (more && n < blockSize) {
+                if (anchors.value() > lastRight) { // anchors before the chain so far can not be used
+                    left[n] = anchors.key();
+                    right[n] = anchors.value();
+                    n++;
+                }
+                more = anchors.next();
+            }
+            int length = 0;
+            for (int i = 0; i < n; i++) { // patience sorting, binary search over the tails
+                int low = 0;
+                int high = length;
+                while (low < high) {
+                    int middle = (low + high) >>> 1;
+                    if (right[tails[middle]] < right[i]) low = middle + 1;
+                    else high = middle;
+                }
+                previous[i] = low > 0 ? tails[low - 1] : -1;
+                tails[low] = i;
+                if (low == length) length++;
+            }
+            int[] chained = new int[length];
+            for (int k = length - 1, i = length > 0 ? tails[length - 1] : -1; k >= 0; k--, i = previous[i]) chained[k] = i;
+            for (int i : chained) {
+                out.writeLong(left[i]);
+                out.writeLong(right[i]);
+            }
+            if (length > 0) lastRight = right[chained[length - 1]];
+        }
+    }
+
+    /**
+     * Position in both files during the last pass
+     */
+    private final class Cursor {
+        private final LineReader left;
+        private final LineReader right;
+        private final RowWriter rows;
+        private long leftLine; // next line to read
+        private long rightLine;
+
+        private Cursor(LineReader left, LineReader right, RowWriter rows) {
+            this.left = left;
+            this.right = right;
+            this.rows = rows;
+        }
+
+        /**
+         * Diff the lines up to (excluding) the given lines, window by window
+         */
+        private void diffUntil(long leftEnd, long rightEnd) throws IOException {
+            while (leftLine < leftEnd || rightLine < rightEnd) {
+                int n = (int) Math.min(window, leftEnd - leftLine);
+                int m = (int) Math.min(window, rightEnd - rightLine);
+                if (n < leftEnd - leftLine || m < rightEnd - rightLine) windowCut = approximate = true; // region is cut into windows
+                List<String> leftWindow = left.read(n);
+                List<String> rightWindow = right.read(m);
+                PrefixSuffixTrimmer.SelectedDiff diff = PrefixSuffixTrimmer.diff(leftWindow, rightWindow, requested, windowDiffBytes, budget);
+                List<HuntMcIlroy.MatchingLineSequence> sequences = diff.sequences();
+                if (budget.isApproximate() || !diff.used().isExact()) approximate = true;
+                if (diff.used() != requested && (used == requested || !diff.used().isExact())) used = diff.used();
+                long leftBase = leftLine;
+                long rightBase = rightLine;
+                IOException[] failed = new IOException[1];
+                HuntMcIlroy.forEachRow(leftWindow, rightWindow, sequences, true, (leftIndex, rightIndex, sameLine) -> {
+                    if (failed[0] != null) return;
+                    try {
+                        rows.row(leftIndex < 0 ? -1 : leftBase + leftIndex, leftIndex < 0 ? null : leftWindow.get(leftIndex), //
+                                rightIndex < 0 ? -1 : rightBase + rightIndex, rightIndex < 0 ? null : rightWindow.get(rightIndex), sameLine);
+                    } catch (IOException e) {
+                        failed[0] = e;
+                    }
+                });
+                if (failed[0] != null) throw failed[0];
+                leftLine += n;
+                rightLine += m;
+            }
+        }
+
+        /**
+         * The anchor lines, equal unless their hashes collided
+         */
+        private void anchor() throws IOException {
+            String leftString = left.read(1).get(0);
+            String rightString = right.read(1).get(0);
+            rows.row(leftLine++, leftString, rightLine++, rightString, leftString.stripLeading().equals(rightString.stripLeading()));
+        }
+    }
+
+    /**
+     * Receives the rows in order
+     */
+    private interface RowWriter {
+        /**
+         * @param leftLine  Left line number (starting at 0), -1 if the row has only a right line
+         * @param left      Left line, null if the row has only a right line
+         * @param rightLine Right line number (starting at 0), -1 if the row has only a left line
+         * @param right     Right line, null if the row has only a left line
+         * @param sameLine  true if both lines are equal
+         */
+        void row(long leftLine, String left, long rightLine, String right, boolean sameLine) throws IOException;
+
+        /**
+         * @param notice What made the diff approximate, null if there is nothing to report
+         */
+        void finish(String notice) throws IOException;
+    }
+
+    /**
+     * Unified diff, a hunk is kept in memory until it ends (or grows beyond its limit, then it is written in parts)
+     */
+    private static final class UnifiedWriter implements RowWriter {
+        private final Writer out;
+        private final long maxHunkChars;
+        private final Deque<String> before = new ArrayDeque<>(); // context lines in front of the next hunk
+        private final List<String> hunk = new ArrayList<>();
+        private final List<String> added = new ArrayList<>(); // "+" lines, written after the "-" lines of a change
+        private long hunkChars;
+        private long leftStart; // first line of the open hunk (starting at 0), -1 if no hunk is open
+        private long rightStart;
+        private long leftCount;
+        private long rightCount;
+        private int trailingSame; // context lines at the end of the open hunk
+        private long nextLeft; // line numbers of the next row
+        private long nextRight;
+
+        private UnifiedWriter(Writer out, File leftFile, File rightFile, long maxHunkChars) throws IOException {
+            this.out = out;
+            this.maxHunkChars = Math.max(1 << 16, maxHunkChars / 2); // chars take two bytes
+            leftStart = -1;
+            out.write("--- " + leftFile.getPath() + "\n");
+            out.write("+++ " + rightFile.getPath() + "\n");
+        }
+
+        @Override
+        public void row(long leftLine, String left, long rightLine, String right, boolean sameLine) throws IOException {
+            if (sameLine) {
+                if (leftStart < 0) {
+                    before.addLast(" " + left);
+                    if (before.size() > CONTEXT) before.removeFirst();
+                } else {
+                    flushAdded();
+                    append(" " + left);
+                    leftCount++;
+                    rightCount++;
+                    if (++trailingSame == 2 * CONTEXT) close(); // the next change gets a hunk of its own
+                }
+            } else {
+                if (leftStart < 0) open();
+                trailingSame = 0;
+                if (left != null) {
+                    append("-" + left);
+                    leftCount++;
+                }
+                if (right != null) {
+                    added.add("+" + right);
+                    hunkChars += right.length() + 1;
+                    rightCount++;
+                }
+                if (hunkChars > maxHunkChars) close(); // very long change, continued in the next hunk
+            }
+            if (left != null) nextLeft = leftLine + 1;
+            if (right != null) nextRight = rightLine + 1;
+        }
+
+        private void open() {
+            leftStart = nextLeft - before.size();
+            rightStart = nextRight - before.size();
+            leftCount = before.size();
+            rightCount = before.size();
+            for (String line : before) append(line);
+            before.clear();
+        }
+
+        private void append(String line) {
+            hunk.add(line);
+            hunkChars += line.length();
+        }
+
+        private void flushAdded() {
+            hunk.addAll(added);
+            added.clear();
+        }
+
+        private void close() throws IOException {
+            flushAdded();
+            int keep = Math.max(0, trailingSame - CONTEXT); // the last context lines may start the next hunk
+            List<String> next = new ArrayList<>(hunk.subList(hunk.size() - keep, hunk.size()));
+            hunk.subList(hunk.size() - keep, hunk.size()).clear();
+            leftCount -= keep;
+            rightCount -= keep;
+            out.write("@@ -" + range(leftStart, leftCount) + " +" + range(rightStart, rightCount) + " @@\n");
+            for (String line : hunk) out.write(line + "\n");
+            hunk.clear();
+            hunkChars = 0;
+            leftStart = -1;
+            trailingSame = 0;
+            before.addAll(next);
+        }
+
+        private static String range(long start, long count) {
+            if (count == 1) return String.valueOf(start + 1);
+            return (count == 0 ? start : start + 1) + "," + count; // an empty range names the line in front of it
+        }
+
+        @Override
+        public void finish(String notice) throws IOException { // a unified diff has no place for the notice
+            if (leftStart >= 0) close();
+        }
+    }
+
+    /**
+     * HTML table like {@link FileUtils#saveDiffAsHTML}, one row per line pair written right away
+     */
+    private static final class HtmlWriter implements RowWriter {
+        private final Writer out;
+        private long nextLeft; // rows are numbered by the lines of the left file
+
+        private HtmlWriter(Writer out, File leftFile, File rightFile) throws IOException {
+            this.out = out;
+            out.write(FileUtils.HTML_HEAD);
+            out.write("<tr><td>" + leftFile.getName() + "</td><td>" + rightFile.getName() + "</td></tr>");
+            out.write("<tr><td>" + leftFile.getAbsolutePath() + "</td><td>" + rightFile.getAbsolutePath() + "</td></tr>");
+        }
+
+        @Override
+        public void row(long leftLine, String left, long rightLine, String right, boolean sameLine) throws IOException {
+            String number = String.valueOf((left != null ? leftLine : nextLeft) + 1);
+            String leftHtml;
+            String rightHtml;
+            char symbol;
+            if (left == null) { // only in the right file
+                symbol = '-';
+                leftHtml = " ".repeat(number.length()) + "  - ";
+                rightHtml = " ".repeat(number.length()) + "    " + FileUtils.escapeHtml(right);
+            } else if (right == null) { // only in the left file
+                symbol = '+';
+                leftHtml = number + ": + " + FileUtils.escapeHtml(left);
+                rightHtml = number + ":   ";
+            } else if (!sameLine) { // compared character by character like the rows of a LineResult
+                symbol = '!';
+                int maxDistance = (int) Math.ceil(Math.max(left.length(), right.length()) * 0.3) - 1;
+                InlineDiff.Result inlineDiff = InlineDiff.compare(left, right, maxDistance);
+                leftHtml = number + ": ! " + highlight(left, inlineDiff.similar() ? inlineDiff.leftRanges() : null);
+                rightHtml = number + ": ! " + highlight(right, inlineDiff.similar() ? inlineDiff.rightRanges() : null);
+            } else {
+                symbol = ' ';
+                leftHtml = number + ":   " + FileUtils.escapeHtml(left);
+                rightHtml = number + ":   " + FileUtils.escapeHtml(right);
+            }
+            out.write(FileUtils.htmlRow(leftHtml, rightHtml, symbol));
+            out.write('\n');
+            if (left != null) nextLeft = leftLine + 1;
+        }
+
+        /**
+         * @param ranges Changed ranges {start, end, ...}, null if the whole line changed
+         */
+        private static String highlight(String line, int[] ranges) {
+            if (ranges == null) ranges = line.isEmpty() ? new int[0] : new int[]{0, line.length()};
+            StringBuilder html = new StringBuilder(line.length() + 32);
+            int column = 0;
+            for (int range = 0; range < ranges.length; range += 2) {
+                html.append(FileUtils.escapeHtml(line.substring(column, ranges[range])));
+                html.append("<span class=\"changed\">").append(FileUtils.escapeHtml(line.substring(ranges[range], ranges[range + 1]))).append("</span>");
+                column = ranges[range + 1];
+            }
+            return html.append(FileUtils.escapeHtml(line.substring(column))).toString();
+        }
+
+        @Override
+        public void finish(String notice) throws IOException {
+            if (notice != null) out.write(FileUtils.htmlNotice(notice));
+            out.write(FileUtils.HTML_TAIL);
+        }
+    }
+
+    /**
+     * Reads a file line by line (line breaks \n, \r and \r\n like {@link MappedLines}), the current line stays as bytes
+     */
+    private static final class LineReader implements Closeable {
+        private final InputStream in;
+        private final byte[] buffer = new byte[1 << 16];
+        private int position;
+        private int limit;
+        private byte[] line = new byte[256];
+        private int length;
+
+        private LineReader(File file) throws IOException {
+            in = Files.newInputStream(file.toPath());
+        }
+
+        /**
+         * @return false at the end of the file
+         */
+        private boolean next() throws IOException {
+            length = 0;
+            while (true) {
+                int b = read();
+                if (b < 0) return length > 0;
+                if (b == '\n') return true;
+                if (b == '\r') {
+                    if (read() != '\n' && limit > 0) position--; // not part of the line break
+                    return true;
+                }
+                if (length == line.length) line = java.util.Arrays.copyOf(line, 2 * length);
+                line[length++] = (byte) b;
+            }
+        }
+
+        private int read() throws IOException {
+            if (position == limit) {
+                limit = in.read(buffer);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        private int length() {
+            return length;
+        }
+
+        /**
+         * @return 64 bit hash of the line without its leading whitespaces (FNV-1a)
+         */
+        private long hash() {
+            int start = 0;
+            while (start < length) { // skip whitespace code points like String.stripLeading()
+                int b = line[start] & 0xFF;
+                int bytes = b < 0x80 ? 1 : (b & 0xE0) == 0xC0 ? 2 : (b & 0xF0) == 0xE0 ? 3 : (b & 0xF8) == 0xF0 ? 4 : 0;
+                if (bytes == 0 || start + bytes > length) break;
+                int codePoint = bytes == 1 ? b : b & (0xFF >>> (bytes + 1));
+                for (int k = 1; k < bytes; k++) codePoint = (codePoint << 6) | (line[start + k] & 0x3F);
+                if (!Character.isWhitespace(codePoint)) break;
+                start += bytes;
+            }
+            long hash = 0xCBF29CE484222325L;
+            for (int i = start; i < length; i++) hash = (hash ^ (line[i] & 0xFF)) * 0x100000001B3L;
+            return hash;
+        }
+
+        /**
+         * @return The next count lines, fewer at the end of the file
+         */
+        private List<String> read(int count) throws IOException {
+            List<String> lines = new ArrayList<>(count);
+            while (lines.size() < count && next()) lines.add(new String(line, 0, length, StandardCharsets.UTF_8));
+            return lines;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Pairs of longs in ascending order (key, then value)
+     */
+    private interface PairSource extends Closeable {
+        boolean next() throws IOException;
+
+        long key();
+
+        long value();
+    }
+
+    /**
+     * Sorts pairs of longs with runs of a fixed size on disk and a k-way merge
+     */
+    private static final class ExternalSorter implements Closeable {
+        private final Path directory;
+        private final String name;
+        private long[] buffer; // key, value, key, value, ...; null once it is not needed any more
+        private final long memoryBytes;
+        private int size; // pairs in the buffer
+        private final List<Path> runs = new ArrayList<>();
+
+        private ExternalSorter(Path directory, String name, long memoryBytes) {
+            this.directory = directory;
+            this.name = name;
+            this.memoryBytes = memoryBytes;
+            buffer = new long[(int) Math.min(Integer.MAX_VALUE - 8, memoryBytes / Long.BYTES) & ~1];
+        }
+
+        private void add(long key, long value) throws IOException {
+            if (2 * size == buffer.length) spill();
+            buffer[2 * size] = key;
+            buffer[2 * size + 1] = value;
+            size++;
+        }
+
+        private void spill() throws IOException {
+            sortPairs(buffer, 0, size);
+            Path run = directory.resolve(name + runs.size());
+            try (DataOutputStream out = output(run)) {
+                for (int i = 0; i < 2 * size; i++) out.writeLong(buffer[i]);
+            }
+            runs.add(run);
+            size = 0;
+        }
+
+        private PairSource sorted() throws IOException {
+            if (runs.isEmpty()) { // everything fits into memory
+                sortPairs(buffer, 0, size);
+                return new PairSource() {
+                    private int pair = -1;
+
+                    @Override
+                    public boolean next() {
+                        return ++pair < size;
+                    }
+
+                    @Override
+                    public long key() {
+                        return buffer[2 * pair];
+                    }
+
+                    @Override
+                    public long value() {
+                        return buffer[2 * pair + 1];
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+            }
+            if (size > 0) spill();
+            buffer = null; // the read buffers of the merge take its memory
+            int bufferBytes = (int) Math.max(1 << 12, Math.min(1 << 16, memoryBytes / runs.size())); // read buffers share the memory
+            PriorityQueue<Run> queue = new PriorityQueue<>(Comparator.<Run>comparingLong(run -> run.key).thenComparingLong(run -> run.value));
+            for (Path path : runs) {
+                Run run = new Run(path, bufferBytes);
+                if (run.next()) queue.add(run);
+                else run.in.close();
+            }
+            return new PairSource() {
+                private long key;
+                private long value;
+
+                @Override
+                public boolean next() throws IOException {
+                    Run run = queue.poll();
+                    if (run == null) return false;
+                    key = run.key;
+                    value = run.value;
+                    if (run.next()) queue.add(run);
+                    else run.in.close();
+                    return true;
+                }
+
+                @Override
+                public long key() {
+                    return key;
+                }
+
+                @Override
+                public long value() {
+                    return value;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    for (Run run : queue) run.in.close();
+                }
+            };
+        }
+
+        /**
+         * Release the buffer and delete the runs, the sorted pairs must not be read any more
+         */
+        @Override
+        public void close() throws IOException {
+            buffer = null;
+            for (Path run : runs) Files.deleteIfExists(run);
+            runs.clear();
+        }
+
+        /**
+         * One sorted run on disk during the merge
+         */
+        private static final class Run {
+            private final DataInputStream in;
+            private long key;
+            private long value;
+
+            private Run(Path path, int bufferBytes) throws IOException {
+                in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), bufferBytes));
+            }
+
+            private boolean next() throws IOException {
+                try {
+                    key = in.readLong();
+                    value = in.readLong();
+                    return true;
+                } catch (EOFException e) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Quicksort of the pairs [from, to) by key and value, in place
+         */
+        private static void sortPairs(long[] a, int from, int to) {
+            while (to - from > 16) {
+                int middle = (from + to) >>> 1;
+                long pivotKey = a[2 * middle];
+                long pivotValue = a[2 * middle + 1];
+                int i = from;
+                int j = to - 1;
+                while (i <= j) {
+                    while (compare(a, i, pivotKey, pivotValue) < 0) i++;
+                    while (compare(a, j, pivotKey, pivotValue) > 0) j--;
+                    if (i <= j) swap(a, i++, j--);
+                }
+                if (j - from < to - i) { // recursion on the smaller part, the stack stays logarithmic
+                    sortPairs(a, from, j + 1);
+                    from = i;
+                } else {
+                    sortPairs(a, i, to);
+                    to = j + 1;
+                }
+            }
+            for (int i = from + 1; i < to; i++) { // insertion sort of the small rest
+                for (int j = i; j > from && compare(a, j - 1, a[2 * j], a[2 * j + 1]) > 0; j--) swap(a, j - 1, j);
+            }
+        }
+
+        private static int compare(long[] a, int pair, long key, long value) {
+            int byKey = Long.compare(a[2 * pair], key);
+            return byKey != 0 ? byKey : Long.compare(a[2 * pair + 1], value);
+        }
+
+        private static void swap(long[] a, int x, int y) {
+            long key = a[2 * x];
+            long value = a[2 * x + 1];
+            a[2 * x] = a[2 * y];
+            a[2 * x + 1] = a[2 * y + 1];
+            a[2 * y] = key;
+            a[2 * y + 1] = value;
+        }
+    }
+
+    private static DataOutputStream output(Path path) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+    }
+
+    private static DataInputStream input(Path path) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16));
+    }
+}
@@ -0,0 +1,120 @@
+package algorithms;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fills the LCS table of two token sequences on all cores
+ * The table is a flat row-major int[] cut into square tiles; a tile only depends on the tiles above and left of it,
+ * so all tiles on one anti-diagonal are independent and computed in parallel on the {@link ForkJoinPool} (wavefront)
+ *
+ * @see HuntMcIlroy
+ */
+class WavefrontLcs {
+
+    /**
+     * Edge length of a tile, 256·256 ints = 256 KiB, fits into the L2 cache
+     */
+    private static final int TILE_SIZE = 256;
+    /**
+     * Smaller tables are filled on the calling thread, forking would cost more than it saves
+     */
+    private static final long PARALLEL_MIN_CELLS = 1L << 20;
+    /**
+     * Largest table that fits into one Java array
+     */
+    static final long MAX_CELLS = Integer.MAX_VALUE - 8;
+
+    /**
+     * Build the LCS table, table[row * right.length + col] is the LCS length of left[0..row] and right[0..col]
+     *
+     * @param left  Tokens of the left lines
+     * @param right Tokens of the right lines
+     * @return Flat LCS table with left.length rows and right.length columns
+     * @throws IllegalArgumentException if the table has more than {@link #MAX_CELLS} cells
+     */
+    static int[] fill(int[] left, int[] right) {
+        long cells = (long) left.length * right.length;
+        if (cells > MAX_CELLS) throw new IllegalArgumentException("LCS table too large: " + left.length + " x " + right.length);
+        int[] table = new int[(int) cells];
+        if (cells == 0) return table;
+
+        int tileRows = (left.length + TILE_SIZE - 1) / TILE_SIZE;
+        int tileCols = (right.length + TILE_SIZE - 1) / TILE_SIZE;
+        if (cells < PARALLEL_MIN_CELLS) {
+            fillTiles(left, right, table, 0, tileRows * tileCols); // row-major tile order, tiles above and left are always done
+            return table;
+        }
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        for (int diagonal = 0; diagonal < tileRows + tileCols - 1; diagonal++) {
+            int firstTileRow = Math.max(0, diagonal - tileCols + 1);
+            int lastTileRow = Math.min(diagonal, tileRows - 1);
+            pool.invoke(new DiagonalTask(left, right, table, diagonal, firstTileRow, lastTileRow + 1)); // waits for the whole diagonal
+        }
+        return table;
+    }
+
+    /**
+     * Fill the tiles [from, to) in row-major tile order
+     */
+    private static void fillTiles(int[] left, int[] right, int[] table, int from, int to) {
+        int tileCols = (right.length + TILE_SIZE - 1) / TILE_SIZE;
+        for (int tile = from; tile < to; tile++) fillTile(left, right, table, tile / tileCols, tile % tileCols);
+    }
+
+    private static void fillTile(int[] left, int[] right, int[] table, int tileRow, int tileCol) {
+        int width = right.length;
+        int rowEnd = Math.min(left.length, (tileRow + 1) * TILE_SIZE);
+        int colStart = tileCol * TILE_SIZE;
+        int colEnd = Math.min(width, colStart + TILE_SIZE);
+        for (int row = tileRow * TILE_SIZE; row < rowEnd; row++) {
+            int token = left[row];
+            int offset = row * width;
+            int above = offset - width; // start of the row above, only read if row > 0
+            for (int col = colStart; col < colEnd; col++) {
+                int value;
+                if (token == right[col]) { // ggZ wächst um 1
+                    value = (row > 0 && col > 0 ? table[above + col - 1] : 0) + 1;
+                } else { // größtmöglicher Wert von oben oder links
+                    int up = row > 0 ? table[above + col] : 0;
+                    int leftValue = col > 0 ? table[offset + col - 1] : 0;
+                    value = Math.max(up, leftValue);
+                }
+                table[offset + col] = value;
+            }
+        }
+    }
+
+    /**
+     * Tiles (tileRow, diagonal - tileRow) for tileRow in [from, to), split in halves until a single tile is left
+     */
+    @SuppressWarnings("serial") // never serialized
+    private static final class DiagonalTask extends RecursiveAction {
+        private final int[] left;
+        private final int[] right;
+        private final int[] table;
+        private final int diagonal;
+        private final int from;
+        private final int to;
+
+        private DiagonalTask(int[] left, int[] right, int[] table, int diagonal, int from, int to) {
+            this.left = left;
+            this.right = right;
+            this.table = table;
+            this.diagonal = diagonal;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                fillTile(left, right, table, from, diagonal - from);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new DiagonalTask(left, right, table, diagonal, from, middle), //
+                    new DiagonalTask(left, right, table, diagonal, middle, to));
+        }
+    }
+}
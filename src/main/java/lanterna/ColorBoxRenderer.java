@@ -1,13 +1,13 @@
 package lanterna;
 
-import algorithms.FileUtils.SpecificLineChange;
+import algorithms.FileUtils;
 
 import com.googlecode.lanterna.TextColor;
 import com.googlecode.lanterna.gui2.*;
 
 /**
- * A custom renderer for {@link TextBox} that colorizes the text based on the characters in it
- * (e.g. '+' will be green, '-' will be red)
+ * A custom renderer for {@link TextBox} that colorizes the markers of the compared lines
+ * (e.g. '+' will be green, '-' will be red), the markers are taken from the {@link FileUtils.LineResult} of the box
  * @see ColorBoxRenderer
  * @see TextBox
  * @see TextColor
@@ -25,40 +25,22 @@ public class ColorBoxRenderer extends TextBox.DefaultTextBoxRenderer {
         if(!coloredTextBox.isDoneFilling()) return;
         if(!otherTextBox.isDoneFilling()) return;
 
-        String boxText = textBox.getText();
-        String[] lines = boxText.split("\\r?\\n|\\r");
-
-        String otherBoxText = otherTextBox.getText();
-        String[] otherLines = otherBoxText.split("\\r?\\n|\\r");
+        FileUtils.LineResult lineResult = coloredTextBox.getLineResult();
+        if(lineResult == null) return;
 
         int xScrollOffset = getViewTopLeft().getColumn();
         int yScrollOffset = getViewTopLeft().getRow();
 
-        int lineNumber = 1;
-
-        // only do necessary calculations for non-displayed lines
-        for(int i = 0; i < yScrollOffset; i++) {
-            if (i >= lines.length) break;
-            String line = lines[i];
-            String otherLine = otherLines[i];
-            if(line.isEmpty()) continue;
-            int symbolLocation = String.valueOf(lineNumber).length() + 2;
-            char symbol = line.charAt(symbolLocation);
-            char otherSymbol = otherLine.charAt(symbolLocation);
-            if(symbol != '-' && otherSymbol != '-') lineNumber++;
-        }
-
-        // calculations for displayed lines
+        // calculations for displayed lines only, markers come from the LineResult (text box row i shows result row i - 1)
         for (int i = yScrollOffset; i < yScrollOffset + textBox.getSize().getRows() - 1; i++) {
-            if (i >= lines.length) break;
-            String line = lines[i];
-            String otherLine = otherLines[i];
-            if(line.isEmpty()) continue;
+            if (i >= textBox.getLineCount()) break;
+            int row = i - 1; // first text box line is the empty line of setText("")
+            if(row < 0 || row >= lineResult.size()) continue;
+            String line = textBox.getLine(i);
             int yPos = i - yScrollOffset;
-            int symbolLocation = String.valueOf(lineNumber).length() + 2;
+            int symbolLocation = lineResult.symbolColumn(row);
             int xPos = symbolLocation - xScrollOffset;
-            char symbol = line.charAt(symbolLocation);
-            char otherSymbol = otherLine.charAt(symbolLocation);
+            char symbol = lineResult.symbol(row, coloredTextBox.getSide());
 
             if((symbol == '+' || symbol == '-' || symbol == '!')) {
                 //
@@ -66,34 +48,33 @@ public class ColorBoxRenderer extends TextBox.DefaultTextBoxRenderer {
                         : symbol == '-' ? TextColor.ANSI.RED : TextColor.ANSI.YELLOW;
                 graphics.setBackgroundColor(colorOfSymbol);
                 graphics.setForegroundColor(TextColor.ANSI.BLACK);
-                if(xPos < textBox.getSize().getColumns() - 1) {
+                if(xPos >= 0 && xPos < textBox.getSize().getColumns() - 1) {
                     graphics.putString(xPos, yPos, String.valueOf(symbol));
                 }
                 graphics.setBackgroundColor(TextColor.ANSI.BLUE);
                 graphics.setForegroundColor(TextColor.ANSI.WHITE);
             }
-            if(symbol != '-' && otherSymbol != '-') lineNumber++;
 
-            if(coloredTextBox.getSpecificLineChanges() != null) {
-                for(SpecificLineChange c : coloredTextBox.getSpecificLineChanges()) {
-                    if(coloredTextBox.getSide() == c.displaySide()) {
-                        xPos = c.index() - xScrollOffset;
-                        if(c.lineNumber() == i) {
-                            graphics.setBackgroundColor(TextColor.ANSI.YELLOW);
-                            graphics.setForegroundColor(TextColor.ANSI.BLACK);
-                            try {
-                                if(xPos < textBox.getSize().getColumns() - 1) {
-                                    graphics.putString(xPos, yPos, String.valueOf(c.character()));
-                                }
-                            } catch (Exception e) {
-                                //Not a valid character
-                                graphics.putString(xPos, yPos, "?");
-                            }
-                            graphics.setBackgroundColor(TextColor.ANSI.BLUE);
-                            graphics.setForegroundColor(TextColor.ANSI.WHITE);
-                        }
+            // highlighted characters of this row, compared the first time the row is drawn (cached in the LineResult)
+            int[] ranges = lineResult.highlightRanges(row, coloredTextBox.getSide());
+            for(int range = 0; range < ranges.length; range += 2) {
+                int start = Math.min(ranges[range], line.length());
+                int end = Math.min(ranges[range + 1], line.length());
+                graphics.setBackgroundColor(TextColor.ANSI.YELLOW);
+                graphics.setForegroundColor(TextColor.ANSI.BLACK);
+                for(int column = start; column < end; column++) {
+                    xPos = column - xScrollOffset;
+                    if(xPos < 0) continue;
+                    if(xPos >= textBox.getSize().getColumns() - 1) break;
+                    try {
+                        graphics.putString(xPos, yPos, String.valueOf(line.charAt(column)));
+                    } catch (Exception e) {
+                        //Not a valid character
+                        graphics.putString(xPos, yPos, "?");
                     }
                 }
+                graphics.setBackgroundColor(TextColor.ANSI.BLUE);
+                graphics.setForegroundColor(TextColor.ANSI.WHITE);
             }
         }
     }
@@ -4,12 +4,11 @@ import algorithms.FileUtils;
 import com.googlecode.lanterna.TerminalSize;
 import com.googlecode.lanterna.gui2.TextBox;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import com.googlecode.lanterna.input.KeyStroke;
 import utils.Side;
 
+import java.util.List;
+
 /**
  * A TextBox that uses a custom renderer to colorize the text based on the characters in it
  * (e.g. '+' will be green, '-' will be red)
@@ -18,7 +17,7 @@ import utils.Side;
  */
 public class ColoredTextBox extends TextBox {
     private final Side side;
-    private List<FileUtils.SpecificLineChange> specificLineChanges = new ArrayList<>();
+    private FileUtils.LineResult lineResult = null;
     ColoredTextBox otherBox = null;
     ColoredTextBox scrollSlave = null;
 
@@ -30,12 +29,30 @@ public class ColoredTextBox extends TextBox {
         setRenderer(new ColorBoxRenderer());
     }
 
-    public void setSpecificLineChanges(List<FileUtils.SpecificLineChange> specificLineChanges) {
-        this.specificLineChanges = specificLineChanges;
+    /**
+     * @param lineResult Compared lines shown in this box, its markers and highlights are drawn by the renderer
+     *                   (highlights only for the rows in view)
+     */
+    public void setLineResult(FileUtils.LineResult lineResult) {
+        this.lineResult = lineResult;
+    }
+
+    /**
+     * Show the given lines below the empty first line of the box ({@link ColorBoxRenderer} maps box line i to result
+     * row i - 1); lines that are already shown are kept, only the lines from the first changed one on are replaced
+     *
+     * @param lines Formatted rows of the result
+     */
+    public synchronized void replaceLines(List<String> lines) {
+        if (getLineCount() == 0 || !getLine(0).isEmpty()) setText(""); // e.g. "Lade Daten..."
+        int same = 0;
+        while (same < lines.size() && same + 1 < getLineCount() && getLine(same + 1).equals(lines.get(same))) same++;
+        for (int line = getLineCount() - 1; line > same; line--) removeLine(line); // from the end, nothing has to move
+        for (int row = same; row < lines.size(); row++) addLine(lines.get(row));
     }
 
-    public List<FileUtils.SpecificLineChange> getSpecificLineChanges() {
-        return specificLineChanges;
+    public FileUtils.LineResult getLineResult() {
+        return lineResult;
     }
 
     public Side getSide() {
@@ -1,7 +1,9 @@
 package lanterna;
 
+import algorithms.DiffAlgorithm;
+import algorithms.DiffSession;
 import algorithms.FileUtils;
-import algorithms.FileUtils.SpecificLineChange;
+import algorithms.ProgressiveDiff;
 import com.googlecode.lanterna.SGR;
 import com.googlecode.lanterna.TerminalPosition;
 import com.googlecode.lanterna.TerminalSize;
@@ -60,7 +62,9 @@ public class LanternaInterface {
     private BasicWindow window;
     private WindowBasedTextGUI textGUI;
     private TerminalScreen screen;
-    List<SpecificLineChange> lineChanges = new ArrayList<>();
+    private final Object diffLock = new Object(); // guards progressiveDiff and diffSession, the loader thread hands them over
+    private ProgressiveDiff progressiveDiff = null; // refines the shown file pair, null if already final
+    private DiffSession diffSession = null; // owns the mapped files of the shown pair
 
     /**
      * Start the Lanterna interface
@@ -445,6 +449,7 @@ public class LanternaInterface {
      */
     private void showFileContents(File leftFile, File rightFile, Side selectedSide) {
         if (interfaceState.getCurrentListener() != null) resetWindow(interfaceState.getCurrentListener());
+        closeDiffSession(); // the previous pair is no longer shown
         interfaceState.setState(LanternaState.FILECOMPARE);
         interfaceState.setCurrentLeftFile(leftFile);
         interfaceState.setCurrentRightFile(rightFile);
@@ -461,7 +466,6 @@ public class LanternaInterface {
 
         interfaceState.setLeftLines(new ArrayList<>());
         interfaceState.setRightLines(new ArrayList<>());
-        lineChanges = new ArrayList<>();
 
         ColoredTextBox leftTextBox = new ColoredTextBox(new TerminalSize(100, 100), selectedSide == Side.LEFT ? Side.LEFT : Side.RIGHT);
         ColoredTextBox rightTextBox = new ColoredTextBox(new TerminalSize(100, 100), selectedSide == Side.LEFT ? Side.RIGHT : Side.LEFT);
@@ -472,9 +476,19 @@ public class LanternaInterface {
         leftTextBox.setReadOnly(true);
         rightTextBox.setReadOnly(true);
 
+        Label noticeLabel = new Label(""); // e.g. another engine was used because of the memory budget
+
         leftTextBox.setText("Lade Daten...");
         rightTextBox.setText("Lade Daten...");
 
+        // opened here, so leaving the view closes it even while the loader thread is still mapping the files
+        DiffSession session = leftFile != null && rightFile != null && !leftFile.equals(rightFile) ? DiffSession.open() : null;
+        if (session != null) {
+            synchronized (diffLock) {
+                diffSession = session;
+            }
+        }
+
 
         //noinspection rawtypes
         SwingWorker worker = new SwingWorker() {
@@ -501,36 +515,45 @@ public class LanternaInterface {
                     leftTextBox.setRenderer(new TextBox.DefaultTextBoxRenderer());
                     rightTextBox.setRenderer(new TextBox.DefaultTextBoxRenderer());
                 } else if (!leftFile.equals(rightFile)) {
-                    interfaceState.setCurrentLineResult(FileUtils.compareFiles(leftFile, rightFile));
-                    FileUtils.LineResult result = interfaceState.getCurrentLineResult();
-
-                    if (selectedSide == Side.LEFT) {
-                        interfaceState.setLeftLines(result.left());
-                        interfaceState.setRightLines(result.right());
-                    } else {
-                        interfaceState.setLeftLines(result.right());
-                        interfaceState.setRightLines(result.left());
+                    // the first result arrives before start returns, large files are refined in the background
+                    AtomicBoolean first = new AtomicBoolean(true);
+                    ProgressiveDiff diff;
+                    try {
+                        diff = ProgressiveDiff.start(leftFile, rightFile, session, (result, complete) -> {
+                            if (!isShown(session)) return; // the view was left, the boxes are no longer displayed
+                            synchronized (leftTextBox) {
+                                showLineResult(result, selectedSide, leftTextBox, rightTextBox, noticeLabel);
+                                if (first.getAndSet(false)) return; // the boxes are filled below
+                                TerminalPosition leftCaret = leftTextBox.getCaretPosition();
+                                TerminalPosition rightCaret = rightTextBox.getCaretPosition();
+                                leftTextBox.replaceLines(interfaceState.getLeftLines()); // same layout as the first fill
+                                rightTextBox.replaceLines(interfaceState.getRightLines());
+                                leftTextBox.setCaretPosition(leftCaret.getRow(), leftCaret.getColumn());
+                                rightTextBox.setCaretPosition(rightCaret.getRow(), rightCaret.getColumn());
+                            }
+                            tryScreenUpdate();
+                        });
+                    } catch (IllegalStateException e) { // the view was left and the session closed while the files were mapped
+                        return null;
+                    }
+                    synchronized (diffLock) {
+                        if (diffSession == session) progressiveDiff = diff;
+                        else if (diff != null) diff.cancel(); // the view was left while start was running
                     }
-
-                    lineChanges = result.specificLineChanges();
-                }
-
-                leftTextBox.setText("");
-
-                for (String line : interfaceState.getLeftLines()) {
-                    leftTextBox.addLine(line);
                 }
 
-                rightTextBox.setText("");
-
-                for (String line : interfaceState.getRightLines()) {
-                    rightTextBox.addLine(line);
+                if (session != null && !isShown(session)) return null;
+                synchronized (leftTextBox) { // refined results replace the changed lines
+                    try {
+                        leftTextBox.setText("");
+                        leftTextBox.replaceLines(interfaceState.getLeftLines());
+                        rightTextBox.setText("");
+                        rightTextBox.replaceLines(interfaceState.getRightLines());
+                    } catch (IllegalStateException e) { // the view was left right after the check, its files are closed
+                        return null;
+                    }
                 }
 
-                if (!lineChanges.isEmpty()) {
-                    leftTextBox.setSpecificLineChanges(lineChanges);
-                    rightTextBox.setSpecificLineChanges(lineChanges);
-                }
                 return null;
             }
 
@@ -568,6 +591,7 @@ public class LanternaInterface {
         addMenu(menuPanel);
         menuPanel.addComponent(new EmptySpace(new TerminalSize(0, 1)));
         menuPanel.addComponent(linkedCheckBox, LinearLayout.createLayoutData(LinearLayout.Alignment.Center));
+        menuPanel.addComponent(noticeLabel, LinearLayout.createLayoutData(LinearLayout.Alignment.Center));
         menuPanel.addComponent(new EmptySpace(new TerminalSize(0, 1)));
         menuPanel.addComponent(outterPanel);
 
@@ -656,6 +680,48 @@ public class LanternaInterface {
         window.addWindowListener(listener);
     }
 
+    /**
+     * Stop the refinement of the shown pair and release its files, may be called while the loader thread still starts it
+     */
+    private void closeDiffSession() {
+        synchronized (diffLock) {
+            if (progressiveDiff != null) progressiveDiff.cancel();
+            progressiveDiff = null;
+            if (diffSession != null) diffSession.close(); // a start that is still running fails or is cancelled on hand over
+            diffSession = null;
+        }
+    }
+
+    /**
+     * @return true if the pair of the session is still shown (its view was not left)
+     */
+    private boolean isShown(DiffSession session) {
+        synchronized (diffLock) {
+            return diffSession == session;
+        }
+    }
+
+    /**
+     * Show a (preliminary or final) result of the compared pair in the interface state and the text boxes
+     *
+     * @param result       Result of the left and the right file
+     * @param selectedSide Side of the selected file, it is shown on the left
+     */
+    private void showLineResult(FileUtils.LineResult result, Side selectedSide, ColoredTextBox leftTextBox, ColoredTextBox rightTextBox, Label noticeLabel) {
+        interfaceState.setCurrentLineResult(result);
+        if (selectedSide == Side.LEFT) {
+            interfaceState.setLeftLines(result.left());
+            interfaceState.setRightLines(result.right());
+        } else {
+            interfaceState.setLeftLines(result.right());
+            interfaceState.setRightLines(result.left());
+        }
+
+        leftTextBox.setLineResult(result);
+        rightTextBox.setLineResult(result);
+        noticeLabel.setText(result.notice() == null ? "" : result.notice());
+    }
+
     private File getSaveFile() {
         return new FileDialogBuilder()
                 .setTitle("Speichern")
@@ -727,6 +793,7 @@ public class LanternaInterface {
                         - Um 2 Dateien manuell zu vergleichen, wählen Sie im Menü "Datei" -> "Manueller Vergleich von 2 Dateien".
                         - Um die Differenz von 2 Dateien zu speichern, wählen Sie im Menü "Datei" -> "Differenz von 2 Dateien speichern".
                         - Um eine Datei zu bearbeiten, wählen Sie im Menü "Datei" -> "Datei editieren".
+                        - Um den Diff-Algorithmus zu wechseln, wählen Sie im Menü "Datei" -> "Einstellungen" -> "Diff-Algorithmus ändern".
                         - Um ein Blackjack-Minispiel zu starten, wählen Sie im Menü "Zusätzliches" -> "Blackjack".
                         - Um ein TicTacToe-Minispiel zu starten, wählen Sie im Menü "Zusätzliches" -> "TicTacToe".
                         - Um ein TicTacToe-Minispiel in einer GUI-Umgebung zu starten (nicht im Headless-Modus), wählen Sie im Menü "Zusätzliches" -> "GUI-TicTacToe".
@@ -845,6 +912,45 @@ public class LanternaInterface {
             textGUI.addWindow(colorWindow);
         }));
 
+        settingsPanel.addComponent(new Button("Diff-Algorithmus ändern", () -> {
+            Window algorithmWindow = new BasicWindow("Diff-Algorithmus ändern");
+            algorithmWindow.setHints(Set.of(Window.Hint.CENTERED));
+            Panel algorithmPanel = new Panel(new LinearLayout(Direction.VERTICAL));
+
+            ComboBox<DiffAlgorithm> algorithmComboBox = new ComboBox<>(DiffAlgorithm.values());
+            algorithmComboBox.setSelectedItem(FileUtils.getDiffAlgorithm());
+
+            ComboBox<Integer> memoryComboBox = choiceBox(FileUtils.getMemoryBudgetPercent(), 10, 25, 50, 75, 90);
+            ComboBox<Integer> timeComboBox = choiceBox(FileUtils.getDiffTimeLimitSeconds(), 0, 2, 5, 10, 30, 60);
+
+            algorithmPanel.addComponent(new Label("Wähle einen Diff-Algorithmus:"));
+            algorithmPanel.addComponent(algorithmComboBox);
+            algorithmPanel.addComponent(new Label("Speicherbudget (% des Heaps):"));
+            algorithmPanel.addComponent(memoryComboBox);
+            algorithmPanel.addComponent(new Label("Zeitbudget in Sekunden (0 = unbegrenzt):"));
+            algorithmPanel.addComponent(timeComboBox);
+            CheckBox speedCheckBox = new CheckBox("Schnelle Suche für große Dateien (nicht minimal)");
+            speedCheckBox.setChecked(FileUtils.isSpeedLargeFiles());
+            algorithmPanel.addComponent(speedCheckBox);
+            CheckBox offHeapCheckBox = new CheckBox("Zeilenindex außerhalb des Heaps");
+            offHeapCheckBox.setChecked(FileUtils.isOffHeapStorage());
+            algorithmPanel.addComponent(offHeapCheckBox);
+
+            algorithmPanel.addComponent(new Button("Abbrechen", () -> textGUI.removeWindow(algorithmWindow)));
+
+            algorithmPanel.addComponent(new Button("Speichern", () -> {
+                FileUtils.setDiffAlgorithm(algorithmComboBox.getSelectedItem());
+                FileUtils.setMemoryBudgetPercent(memoryComboBox.getSelectedItem());
+                FileUtils.setDiffTimeLimitSeconds(timeComboBox.getSelectedItem());
+                if (speedCheckBox.isChecked() != FileUtils.isSpeedLargeFiles()) FileUtils.setSpeedLargeFiles(speedCheckBox.isChecked());
+                FileUtils.setOffHeapStorage(offHeapCheckBox.isChecked());
+                textGUI.removeWindow(algorithmWindow);
+            }));
+
+            algorithmWindow.setComponent(algorithmPanel);
+            textGUI.addWindow(algorithmWindow);
+        }));
+
         settingsPanel.addComponent(new Button("Zurück", () -> textGUI.removeWindow(settingsWindow)));
 
         textGUI.addWindow(settingsWindow);
@@ -860,6 +966,24 @@ public class LanternaInterface {
         });
     }
 
+    /**
+     * Combo box of fixed choices with the current value selected
+     * A current value that is not one of the choices (e.g. set on the command line) is added, so saving keeps it
+     *
+     * @param current Value to select
+     * @param choices Values offered in ascending order
+     */
+    private static ComboBox<Integer> choiceBox(int current, Integer... choices) {
+        List<Integer> items = new ArrayList<>(List.of(choices));
+        if (!items.contains(current)) {
+            items.add(current);
+            Collections.sort(items);
+        }
+        ComboBox<Integer> comboBox = new ComboBox<>(items);
+        comboBox.setSelectedItem(current);
+        return comboBox;
+    }
+
     /**
      * Let the user manually compare 2 files
      *
@@ -1031,6 +1155,7 @@ public class LanternaInterface {
      */
     private void handleBackwards() {
         if (interfaceState.getState() == LanternaState.FILECOMPARE) {
+            closeDiffSession(); // F2 compares the pair again
             if (interfaceState.getLeftDir() != null && interfaceState.getRightDir() != null) {
                 showFilesAsDirectory(interfaceState.getLeftDir(), interfaceState.getRightDir());
             }
@@ -1,6 +1,9 @@
 package swing;
 
+import algorithms.DiffAlgorithm;
+import algorithms.DiffSession;
 import algorithms.FileUtils;
+import algorithms.ProgressiveDiff;
 import lanterna.LanternaInterface;
 import utils.Side;
 
@@ -121,7 +124,7 @@ public class SwingInterface {
                 if (level2UI != null && level2UI.isVisible()) {
                     changeActivePanelFromTo(level2UI, level1UI);
                 } else if (level3UI != null && level3UI.isVisible()) {
-                    changeActivePanelFromTo(level3UI, level2UI);
+                    leaveDiffView();
                 }
                 resizeAll();
             });
@@ -129,7 +132,7 @@ public class SwingInterface {
 
             forwardButton.addActionListener(e -> {
                 if (level2UI != null && level2UI.isVisible() && level3UI != null) {
-                    changeActivePanelFromTo(level2UI, level3UI);
+                    level2UI.reopenDiff(); // its files were released when the diff view was left
                 } else if (level1UI.isVisible() && level2UI != null) {
                     changeActivePanelFromTo(level1UI, level2UI);
                 }
@@ -148,6 +151,39 @@ public class SwingInterface {
                 themeItem.add(mi);
             }
             settingsMenu.add(themeItem);
+            JMenu algorithmItem = new JMenu("Diff-Algorithmus");
+            ButtonGroup algorithmGroup = new ButtonGroup();
+            for (DiffAlgorithm algorithm : DiffAlgorithm.values()) {
+                JRadioButtonMenuItem mi = new JRadioButtonMenuItem(algorithm.toString(), algorithm == FileUtils.getDiffAlgorithm());
+                mi.addActionListener(e -> FileUtils.setDiffAlgorithm(algorithm));
+                algorithmGroup.add(mi);
+                algorithmItem.add(mi);
+            }
+            settingsMenu.add(algorithmItem);
+            JMenu memoryItem = new JMenu("Speicherbudget");
+            ButtonGroup memoryGroup = new ButtonGroup();
+            for (int percent : new int[]{10, 25, 50, 75, 90}) {
+                JRadioButtonMenuItem mi = new JRadioButtonMenuItem(percent + " % des Heaps", percent == FileUtils.getMemoryBudgetPercent());
+                mi.addActionListener(e -> FileUtils.setMemoryBudgetPercent(percent));
+                memoryGroup.add(mi);
+                memoryItem.add(mi);
+            }
+            settingsMenu.add(memoryItem);
+            JMenu timeItem = new JMenu("Zeitbudget");
+            ButtonGroup timeGroup = new ButtonGroup();
+            for (int seconds : new int[]{0, 2, 5, 10, 30, 60}) {
+                JRadioButtonMenuItem mi = new JRadioButtonMenuItem(seconds == 0 ? "Unbegrenzt" : seconds + " s", seconds == FileUtils.getDiffTimeLimitSeconds());
+                mi.addActionListener(e -> FileUtils.setDiffTimeLimitSeconds(seconds));
+                timeGroup.add(mi);
+                timeItem.add(mi);
+            }
+            settingsMenu.add(timeItem);
+            JCheckBoxMenuItem speedItem = new JCheckBoxMenuItem("Schnelle Suche für große Dateien (nicht minimal)", FileUtils.isSpeedLargeFiles());
+            speedItem.addActionListener(e -> FileUtils.setSpeedLargeFiles(speedItem.isSelected()));
+            settingsMenu.add(speedItem);
+            JCheckBoxMenuItem offHeapItem = new JCheckBoxMenuItem("Zeilenindex außerhalb des Heaps", FileUtils.isOffHeapStorage());
+            offHeapItem.addActionListener(e -> FileUtils.setOffHeapStorage(offHeapItem.isSelected()));
+            settingsMenu.add(offHeapItem);
             add(settingsMenu);
 
             JMenu additionalStuff = new JMenu("Zusätzliches");
@@ -196,6 +232,7 @@ public class SwingInterface {
                     * Informationen über Entwickler: "Hilfe -> Über uns"
                     * CUI öffnen: "Hilfe -> In CUI wechseln"
                     * Theme ändern: "Einstellungen -> Theme"
+                    * Diff-Algorithmus wechseln: "Einstellungen -> Diff-Algorithmus"
                     * TicTacToe-Minispiel: "Zusätzliches -> TicTacToe"
                     * Programm beenden: "Beenden -> Beende Programm"
                     """, frame, "Hilfe");
@@ -351,6 +388,10 @@ public class SwingInterface {
     private final class Level2UI extends JPanel {
 
         private FileUtils.LineResult lr;
+        private final Object diffLock = new Object(); // guards progressiveDiff and diffSession, the worker hands them over
+        private ProgressiveDiff progressiveDiff = null; // refines the shown file pair, null if already final
+        private DiffSession diffSession = null; // owns the mapped files of the shown pair
+        private Runnable lastDiff = null; // compares the last shown pair again
         private JList<String> leftList;
         private JList<String> rightList;
         private List<File> currentLeftFiles;
@@ -508,43 +549,108 @@ public class SwingInterface {
                     List<File> otherFiles = (side == Side.LEFT) ? allRightFiles : allLeftFiles;
                     Optional<File> otherFile = otherFiles.stream().filter(f -> f.getName().equals(thisFile.getName())).findFirst();
 
-                    deactivate();
-                    menu.deactivate();
+                    showDiff(thisFile, otherFile, side);
+                }
+            });
+        }
 
-                    // noinspection rawtypes
-                    SwingWorker worker = new SwingWorker() {
-                        @Override
-                        protected Object doInBackground() {
-                            if (side.equals(Side.LEFT)) {
-                                if (otherFile.isEmpty()) {
-                                    level3UI = new Level3UI(FileUtils.readFile(thisFile), null, null, false);
-                                } else {
-                                    lr = FileUtils.compareFiles(thisFile, otherFile.get());
-                                    level3UI = new Level3UI(lr.left(), lr.right(), lr.specificLineChanges(), false);
-                                }
-                            } else { // called from right side
-                                if (otherFile.isEmpty()) {
-                                    level3UI = new Level3UI(null, FileUtils.readFile(thisFile), null, false);
+        /**
+         * Compare a file with the file of the same name on the other side (if there is one) and show the diff view
+         * The session of the pair is opened here on the event dispatch thread, the worker only hands the progressive
+         * diff over, so leaving the view closes the session even while the worker is still mapping the files
+         */
+        private void showDiff(File thisFile, Optional<File> otherFile, Side side) {
+            lastDiff = () -> showDiff(thisFile, otherFile, side);
+            deactivate();
+            menu.deactivate();
+            closeDiff(); // the previous pair is no longer shown
+            DiffSession session = otherFile.isPresent() ? DiffSession.open() : null;
+            synchronized (diffLock) {
+                diffSession = session;
+            }
+
+            // noinspection rawtypes
+            SwingWorker worker = new SwingWorker() {
+                @Override
+                protected Object doInBackground() {
+                    Level3UI shown;
+                    if (otherFile.isEmpty()) {
+                        List<String> lines = FileUtils.readFile(thisFile);
+                        shown = side.equals(Side.LEFT) ? new Level3UI(lines, null, null) : new Level3UI(null, lines, null);
+                    } else {
+                        // the first result arrives before start returns, large files are refined in the background
+                        Level3UI[] shownUI = new Level3UI[1];
+                        ProgressiveDiff diff;
+                        try {
+                            diff = ProgressiveDiff.start(thisFile, otherFile.get(), session, (result, complete) -> {
+                                if (!isShown(session)) return; // the view was left, its files are closed
+                                lr = result;
+                                FileUtils.LineResult shownResult = side.equals(Side.LEFT) ? result : result.withSwappedSides(); // right file on the left side
+                                if (shownUI[0] == null) {
+                                    shownUI[0] = new Level3UI(shownResult.left(), shownResult.right(), shownResult);
                                 } else {
-                                    lr = FileUtils.compareFiles(thisFile, otherFile.get());
-                                    level3UI = new Level3UI(lr.right(), lr.left(), lr.specificLineChanges(), true);
+                                    SwingUtilities.invokeLater(() -> {
+                                        if (level3UI == shownUI[0] && isShown(session)) shownUI[0].update(shownResult);
+                                    });
                                 }
-                            }
-                            frame.add(level3UI, globalGbc);
-                            changeActivePanelFromTo(level2UI, level3UI);
+                            });
+                        } catch (IllegalStateException e) { // the session was closed while the files were mapped
                             return null;
                         }
-
-                        @Override
-                        protected void done() {
-                            super.done();
-                            activate();
-                            menu.activate();
+                        synchronized (diffLock) {
+                            if (diffSession != session || shownUI[0] == null) { // closed while start was running
+                                if (diff != null) diff.cancel();
+                                return null;
+                            }
+                            progressiveDiff = diff;
                         }
-                    };
-                    worker.execute();
+                        shown = shownUI[0];
+                    }
+                    SwingUtilities.invokeLater(() -> {
+                        if (session != null && !isShown(session)) return;
+                        level3UI = shown;
+                        frame.add(level3UI, globalGbc);
+                        changeActivePanelFromTo(level2UI, level3UI);
+                    });
+                    return null;
                 }
-            });
+
+                @Override
+                protected void done() {
+                    super.done();
+                    activate();
+                    menu.activate();
+                }
+            };
+            worker.execute();
+        }
+
+        /**
+         * Show the last compared pair again (forward after the diff view was left), its files are mapped again
+         */
+        private void reopenDiff() {
+            if (lastDiff != null) lastDiff.run();
+        }
+
+        /**
+         * Stop the refinement of the shown pair and release its files, may be called while the worker still starts it
+         */
+        private void closeDiff() {
+            synchronized (diffLock) {
+                if (progressiveDiff != null) progressiveDiff.cancel();
+                progressiveDiff = null;
+                if (diffSession != null) diffSession.close(); // a start that is still running fails or is cancelled on hand over
+                diffSession = null;
+            }
+        }
+
+        /**
+         * @return true if the pair of the session is still shown (the diff view was not left)
+         */
+        private boolean isShown(DiffSession session) {
+            synchronized (diffLock) {
+                return diffSession == session;
+            }
         }
 
         public static List<File> filterFilesByName(List<File> files, String searchString) {
@@ -567,24 +673,25 @@ public class SwingInterface {
 
     private static final class Level3UI extends JPanel {
 
-        private final List<String> leftLines;
-        private final List<String> rightLines;
-        private final List<FileUtils.SpecificLineChange> lineChanges;
-        private final boolean switchSpecificLineChanges;
+        private List<String> leftLines;
+        private List<String> rightLines;
+        private FileUtils.LineResult lineResult; // null if only one file is shown
+        private final Level3UISide leftUISide;
+        private final Level3UISide rightUISide;
+        private final JLabel noticeLabel = new JLabel();
 
-        public Level3UI(List<String> leftInput, List<String> rightInput, List<FileUtils.SpecificLineChange> lcs, boolean switchLcs) {
+        public Level3UI(List<String> leftInput, List<String> rightInput, FileUtils.LineResult shownResult) {
             super(new GridBagLayout());
             setFocusable(false);
 
             leftLines = leftInput;
             rightLines = rightInput;
-            lineChanges = lcs;
-            switchSpecificLineChanges = switchLcs;
+            lineResult = shownResult;
 
-            Level3UISide leftUISide = new Level3UISide(Side.LEFT);
-            Level3UISide rightUISide = new Level3UISide(Side.RIGHT);
-            if (leftLines != null && rightLines != null) {
-                changeColor(leftUISide.textPane, rightUISide.textPane, lineChanges);
+            leftUISide = new Level3UISide(Side.LEFT);
+            rightUISide = new Level3UISide(Side.RIGHT);
+            if (lineResult != null) {
+                changeColor(leftUISide.textPane, rightUISide.textPane, lineResult); // markers, the changed characters follow the viewport
             }
 
             JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, leftUISide, rightUISide);
@@ -605,6 +712,12 @@ public class SwingInterface {
             gbc.anchor = GridBagConstraints.CENTER;
             add(synchronizedScrolling, gbc);
 
+            if (lineResult != null) { // e.g. another engine was used because of the memory budget, or a preliminary result
+                noticeLabel.setText(lineResult.notice() == null ? "" : lineResult.notice());
+                gbc.anchor = GridBagConstraints.LINE_START;
+                add(noticeLabel, gbc);
+            }
+
             synchronizedScrolling.addActionListener(e -> {
                 if (synchronizedScrolling.isSelected()) {
                     rightUISide.getHorizontalScrollBar().setEnabled(false);
@@ -641,12 +754,12 @@ public class SwingInterface {
                     if (result == JFileChooser.APPROVE_OPTION) {
                         File fileToSaveIn = jfc.getSelectedFile();
                         boolean savedSuccessfully;
-                        if (optionPaneResult == JOptionPane.YES_OPTION) {
-                            savedSuccessfully = FileUtils.saveDiffAsText(null, null, fileToSaveIn, //
-                                    new FileUtils.LineResult(leftLines, rightLines, lineChanges));
+                        if (lineResult == null) {
+                            savedSuccessfully = false; // nothing compared
+                        } else if (optionPaneResult == JOptionPane.YES_OPTION) {
+                            savedSuccessfully = FileUtils.saveDiffAsText(null, null, fileToSaveIn, lineResult);
                         } else {
-                            savedSuccessfully = FileUtils.saveDiffAsHTML(null, null, fileToSaveIn, //
-                                    new FileUtils.LineResult(leftLines, rightLines, lineChanges));
+                            savedSuccessfully = FileUtils.saveDiffAsHTML(null, null, fileToSaveIn, lineResult);
                         }
                         if (!savedSuccessfully)
                             JOptionPane.showMessageDialog(this, "Konnte nicht gespeichert werden!", "Fehler", JOptionPane.ERROR_MESSAGE);
@@ -656,18 +769,54 @@ public class SwingInterface {
             });
         }
 
+        /**
+         * Show a refined result of the same file pair, the scroll positions are kept
+         *
+         * @param shownResult Result in the order of the shown sides
+         */
+        private void update(FileUtils.LineResult shownResult) {
+            leftLines = shownResult.left();
+            rightLines = shownResult.right();
+            lineResult = shownResult;
+            leftUISide.setLines(leftLines);
+            rightUISide.setLines(rightLines);
+            changeColor(leftUISide.textPane, rightUISide.textPane, lineResult);
+            noticeLabel.setText(lineResult.notice() == null ? "" : lineResult.notice());
+        }
+
         private class Level3UISide extends JScrollPane {
 
             private final JTextPane textPane = new JTextPane();
+            private final Side side;
+            private final BitSet highlightedRows = new BitSet(); // rows whose changed characters are already colored
 
             private Level3UISide(Side side) {
                 super();
+                this.side = side;
 
                 textPane.setEditable(false);
                 textPane.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
 
-                List<String> thisSideLines = (side == Side.LEFT) ? leftLines : rightLines;
+                setLines((side == Side.LEFT) ? leftLines : rightLines);
+                textPane.setCaretPosition(0); // cursor jump to top
+
+                JPanel textArea = new JPanel(new GridBagLayout());
+                GridBagConstraints gbc = new GridBagConstraints();
+                gbc.fill = GridBagConstraints.BOTH; // für linksbündig
+                gbc.weighty = 1; // für linksbündig
+                gbc.weightx = 1; // für linksbündig
+                textArea.add(textPane, gbc);
 
+                this.setViewportView(textArea);
+                this.getVerticalScrollBar().setUnitIncrement(20);
+                if (lineResult != null) this.getViewport().addChangeListener(e -> highlightVisibleRows()); // layout and scrolling
+            }
+
+            /**
+             * Replace the shown text, the changed characters are colored again when they come into view
+             */
+            private void setLines(List<String> thisSideLines) {
+                Point position = getViewport().getViewPosition();
                 Document doc = new DefaultStyledDocument();
 
                 if (thisSideLines != null) {
@@ -679,77 +828,63 @@ public class SwingInterface {
                 }
 
                 textPane.setDocument(doc);
+                highlightedRows.clear();
+                SwingUtilities.invokeLater(() -> getViewport().setViewPosition(position)); // after the new layout
+            }
 
-                textPane.setCaretPosition(0); // cursor jump to top
-
-                JPanel textArea = new JPanel(new GridBagLayout());
-                GridBagConstraints gbc = new GridBagConstraints();
-                gbc.fill = GridBagConstraints.BOTH; // für linksbündig
-                gbc.weighty = 1; // für linksbündig
-                gbc.weightx = 1; // für linksbündig
-                textArea.add(textPane, gbc);
-
-                this.setViewportView(textArea);
-                this.getVerticalScrollBar().setUnitIncrement(20);
+            /**
+             * Color the changed characters of the rows in view, each row is compared once (cached in the LineResult)
+             */
+            private void highlightVisibleRows() {
+                Rectangle visible = textPane.getVisibleRect();
+                if (visible.isEmpty()) return; // not laid out yet
+                StyledDocument doc = textPane.getStyledDocument();
+                Element root = doc.getDefaultRootElement(); // one element per line
+                int firstRow = root.getElementIndex(textPane.viewToModel2D(new Point(0, visible.y)));
+                int lastRow = root.getElementIndex(textPane.viewToModel2D(new Point(0, visible.y + visible.height)));
+
+                MutableAttributeSet attrs = new SimpleAttributeSet();
+                StyleConstants.setBackground(attrs, Color.ORANGE);
+                StyleConstants.setForeground(attrs, Color.BLACK);
+                for (int row = Math.max(0, firstRow); row <= lastRow && row < lineResult.size(); row++) {
+                    if (highlightedRows.get(row)) continue;
+                    highlightedRows.set(row);
+                    int offset = root.getElement(row).getStartOffset();
+                    int[] ranges = lineResult.highlightRanges(row, side);
+                    for (int range = 0; range < ranges.length; range += 2) {
+                        doc.setCharacterAttributes(offset + ranges[range], ranges[range + 1] - ranges[range], attrs, false);
+                    }
+                }
             }
         }
 
-        private void changeColor(JTextPane leftTextPane, JTextPane rightTextPane, List<FileUtils.SpecificLineChange> lineChanges) {
+        private void changeColor(JTextPane leftTextPane, JTextPane rightTextPane, FileUtils.LineResult lineResult) {
             MutableAttributeSet leftAttrs = leftTextPane.getInputAttributes();
             StyledDocument leftDoc = leftTextPane.getStyledDocument();
             MutableAttributeSet rightAttrs = rightTextPane.getInputAttributes();
             StyledDocument rightDoc = rightTextPane.getStyledDocument();
+            Element leftRoot = leftDoc.getDefaultRootElement(); // one element per line
+            Element rightRoot = rightDoc.getDefaultRootElement();
 
-            String[] leftLines = leftTextPane.getText().split(System.lineSeparator());
-            int leftOffset = 0;
-            String[] rightLines = rightTextPane.getText().split(System.lineSeparator());
-            int rightOffset = 0;
+            // markers, taken from the LineResult instead of the text
+            for (int row = 0; row < lineResult.size(); row++) {
+                int indexOfSymbol = lineResult.symbolColumn(row);
+                if (indexOfSymbol < 0) continue;
 
-            int lineNumber = 1;
-            // we know that leftLines.length == rightLines.length
-            for (int i = 0; i < leftLines.length; i++) {
-                int indexOfSymbol = String.valueOf(lineNumber).length() + 2;
-
-                String leftLine = leftLines[i];
-                String rightLine = rightLines[i];
-
-
-                char leftSymbol = leftLine.charAt(indexOfSymbol);
+                char leftSymbol = lineResult.symbol(row, Side.LEFT);
                 if (leftSymbol == '+' || leftSymbol == '-' || leftSymbol == '!') { // make + green, - red, ! orange
                     Color colorOfSymbol = (leftSymbol == '+') ? Color.GREEN : (leftSymbol == '-') ? Color.RED : Color.ORANGE;
                     StyleConstants.setForeground(leftAttrs, Color.BLACK);
                     StyleConstants.setBackground(leftAttrs, colorOfSymbol);
-                    leftDoc.setCharacterAttributes(leftOffset + indexOfSymbol, 1, leftAttrs, false);
+                    leftDoc.setCharacterAttributes(leftRoot.getElement(row).getStartOffset() + indexOfSymbol, 1, leftAttrs, false);
                 }
-                leftOffset += leftLine.length() + 1;
 
-                char rightSymbol = rightLine.charAt(indexOfSymbol);
+                char rightSymbol = lineResult.symbol(row, Side.RIGHT);
                 if (rightSymbol == '+' || rightSymbol == '-' || rightSymbol == '!') { // make + green, - red, ! orange
                     Color colorOfSymbol = (rightSymbol == '+') ? Color.GREEN : (rightSymbol == '-') ? Color.RED : Color.ORANGE;
                     StyleConstants.setBackground(rightAttrs, colorOfSymbol);
                     StyleConstants.setForeground(rightAttrs, Color.BLACK);
-                    rightDoc.setCharacterAttributes(rightOffset + indexOfSymbol, 1, rightAttrs, false);
-                }
-                rightOffset += rightLine.length() + 1;
-
-                if (leftSymbol != '-' && rightSymbol != '-') lineNumber++;
-            }
-
-            // specific line changes
-            if (lineChanges != null) {
-                for (FileUtils.SpecificLineChange change : lineChanges) {
-                    boolean currentSideIsActuallyLeft = (!switchSpecificLineChanges && change.displaySide() == Side.LEFT)
-                            || (switchSpecificLineChanges && change.displaySide() == Side.RIGHT);
-                    String[] changeSideLines = (currentSideIsActuallyLeft) ? leftLines : rightLines;
-                    MutableAttributeSet changeSideAttrs = (currentSideIsActuallyLeft) ? leftAttrs : rightAttrs;
-                    StyledDocument changeSideDoc = (currentSideIsActuallyLeft) ? leftDoc : rightDoc;
-
-                    int offset = 0;
-                    for (int i = 0; i < change.lineNumber() - 1; i++) offset += changeSideLines[i].length() + 1;
-
-                    StyleConstants.setBackground(changeSideAttrs, Color.ORANGE);
-                    StyleConstants.setForeground(changeSideAttrs, Color.BLACK);
-                    changeSideDoc.setCharacterAttributes(offset + change.index(), 1, changeSideAttrs, false);
+                    rightDoc.setCharacterAttributes(rightRoot.getElement(row).getStartOffset() + indexOfSymbol, 1, rightAttrs, false);
                 }
             }
         }
@@ -770,13 +905,23 @@ public class SwingInterface {
                     if (level2UI != null && level2UI.isVisible()) {
                         changeActivePanelFromTo(level2UI, level1UI);
                     } else if (level3UI != null && level3UI.isVisible()) {
-                        changeActivePanelFromTo(level3UI, level2UI);
+                        leaveDiffView();
                     }
                 }
             }
         });
     }
 
+    /**
+     * Go back from the diff view to the file lists, the files of the shown pair are released
+     * The view is removed because its lines can not be read anymore, forward compares the pair again
+     */
+    private void leaveDiffView() {
+        changeActivePanelFromTo(level3UI, level2UI);
+        frame.remove(level3UI);
+        level2UI.closeDiff();
+    }
+
     private void changeActivePanelFromTo(JPanel oldPanel, JPanel newPanel) {
         oldPanel.setVisible(false);
         newPanel.setVisible(true);